@@ -0,0 +1,38 @@
+package cmsc433.p0;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * <code>IntMaxKernel</code> that keeps one running maximum per SIMD lane,
+ * using the widest vector shape the CPU supports, and reduces the lanes once
+ * at the end. Loaded reflectively by <code>IntMaxKernel.INSTANCE</code>;
+ * compile with <code>--add-modules jdk.incubator.vector</code> on JDK 16+.
+ */
+public class VectorMaxKernel extends IntMaxKernel {
+
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+	public int max(int[] array, int from, int to) {
+		IntVector lanes = IntVector.broadcast(SPECIES, Integer.MIN_VALUE);
+		int i = from;
+		int bound = from + SPECIES.loopBound(to - from);
+		for (; i < bound; i += SPECIES.length())
+			lanes = lanes.max(IntVector.fromArray(SPECIES, array, i));
+
+		int max = lanes.reduceLanes(VectorOperators.MAX);
+		// scalar tail for the last partial vector
+		for (; i < to; i++) {
+			if (array[i] > max)
+				max = array[i];
+		}
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return "vector(" + SPECIES + ")";
+	}
+
+}
@@ -0,0 +1,62 @@
+package cmsc433.p0;
+
+/**
+ * The innermost loop of the striped maximizers: the maximum of a range of an
+ * <code>int</code> array. <code>INSTANCE</code> is the fastest kernel this
+ * JVM can run.
+ * <p>
+ * A SIMD kernel built on the incubating <code>jdk.incubator.vector</code>
+ * API lives in <code>src-vector</code>, which needs JDK 16+ and
+ * <code>--add-modules jdk.incubator.vector</code> both to compile and to run.
+ * If that class is missing, cannot be linked, or is disabled with
+ * <code>-Dcmsc433.p0.vector=false</code>, the scalar loop is used instead.
+ */
+public abstract class IntMaxKernel {
+
+	public static final IntMaxKernel SCALAR = new IntMaxKernel() {
+		public int max(int[] array, int from, int to) {
+			int max = Integer.MIN_VALUE;
+			for (int i = from; i < to; i++) {
+				if (array[i] > max)
+					max = array[i];
+			}
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return "scalar";
+		}
+	};
+
+	public static final IntMaxKernel INSTANCE = load();
+
+	/**
+	 * @param array Array to scan
+	 * @param from First index to read
+	 * @param to One past the last index to read
+	 * @return Maximum in the range, or <code>Integer.MIN_VALUE</code> if it is empty
+	 */
+	public abstract int max(int[] array, int from, int to);
+
+	/**
+	 * @return The vector kernel if it can be loaded and agrees with the scalar
+	 * loop on a small sample, otherwise <code>SCALAR</code>
+	 */
+	private static IntMaxKernel load() {
+		if (!Boolean.parseBoolean(System.getProperty("cmsc433.p0.vector", "true")))
+			return SCALAR;
+		try {
+			IntMaxKernel vector = (IntMaxKernel) Class.forName("cmsc433.p0.VectorMaxKernel").getDeclaredConstructor().newInstance();
+			int[] sample = { 3, -7, 42, 0, Integer.MIN_VALUE, 41, 42, -1, 5, 17, 99, 2, -99, 8, 6, 1, 12, 13, 14 };
+			if (vector.max(sample, 0, sample.length) != SCALAR.max(sample, 0, sample.length))
+				return SCALAR;
+			return vector;
+		} catch (ReflectiveOperationException e) {
+			return SCALAR; // not compiled in
+		} catch (LinkageError e) {
+			return SCALAR; // compiled in, but jdk.incubator.vector is not available at run time
+		}
+	}
+
+}
@@ -0,0 +1,23 @@
+package cmsc433.p0;
+
+import java.io.IOException;
+
+/**
+ * A possibly unbounded source of <code>ints</code> that several workers may
+ * read from at once. Elements are handed out in batches so that a shared
+ * source is touched once per batch rather than once per element.
+ */
+public interface IntSource {
+
+	/**
+	 * Read the next elements into <code>buffer</code>, blocking until at least
+	 * one is available or the source is exhausted. Must be safe to call from
+	 * several threads; every element goes to exactly one caller.
+	 * @param buffer Destination, filled from index 0
+	 * @return Number of elements read (at least 1), or -1 if the source is exhausted
+	 * @throws IOException If the underlying stream fails
+	 * @throws InterruptedException If interrupted while waiting for elements
+	 */
+	int read(int[] buffer) throws IOException, InterruptedException;
+
+}
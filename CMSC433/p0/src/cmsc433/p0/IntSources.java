@@ -0,0 +1,94 @@
+package cmsc433.p0;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Adapters from common inputs to <code>IntSource</code>.
+ */
+public final class IntSources {
+
+	private IntSources() {
+	}
+
+	/**
+	 * @param iterator Iterator to drain; it is only ever touched while holding the source's lock
+	 * @return Source that ends when <code>iterator</code> has no more elements
+	 */
+	public static IntSource of(final Iterator<Integer> iterator) {
+		return new IntSource() {
+			public synchronized int read(int[] buffer) {
+				int count = 0;
+				if (iterator instanceof PrimitiveIterator.OfInt) {
+					PrimitiveIterator.OfInt ints = (PrimitiveIterator.OfInt) iterator;
+					while (count < buffer.length && ints.hasNext())
+						buffer[count++] = ints.nextInt();
+				} else {
+					while (count < buffer.length && iterator.hasNext())
+						buffer[count++] = iterator.next();
+				}
+				return count == 0 ? -1 : count;
+			}
+		};
+	}
+
+	/**
+	 * @param in Stream of 4-byte <code>ints</code>; a trailing partial value is ignored
+	 * @param order Byte order of the values in the stream
+	 * @return Source that ends at the end of <code>in</code>
+	 */
+	public static IntSource of(final InputStream in, final ByteOrder order) {
+		return new IntSource() {
+			private byte[] bytes = new byte[0];
+
+			public synchronized int read(int[] buffer) throws IOException {
+				if (bytes.length < buffer.length * 4)
+					bytes = new byte[buffer.length * 4];
+
+				// take whatever is available, then top up to a whole number of ints
+				int filled = in.read(bytes, 0, buffer.length * 4);
+				if (filled < 0)
+					return -1;
+				while (filled < 4 || filled % 4 != 0) {
+					int n = in.read(bytes, filled, 4 - filled % 4);
+					if (n < 0)
+						break;
+					filled += n;
+				}
+
+				int count = filled / 4;
+				if (count == 0)
+					return -1;
+				ByteBuffer.wrap(bytes, 0, count * 4).order(order).asIntBuffer().get(buffer, 0, count);
+				return count;
+			}
+		};
+	}
+
+	/**
+	 * @param queue Queue to consume from; it never ends, so workers reading it
+	 * run until they are stopped
+	 * @return Source that blocks on <code>queue</code> for the first element of
+	 * each batch and drains whatever else is ready
+	 */
+	public static IntSource of(final BlockingQueue<Integer> queue) {
+		return new IntSource() {
+			public int read(int[] buffer) throws InterruptedException {
+				List<Integer> drained = new ArrayList<Integer>(buffer.length);
+				drained.add(queue.take());
+				queue.drainTo(drained, buffer.length - 1);
+				for (int i = 0; i < drained.size(); i++)
+					buffer[i] = drained.get(i);
+				return drained.size();
+			}
+		};
+	}
+
+}
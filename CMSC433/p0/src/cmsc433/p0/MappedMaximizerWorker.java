@@ -0,0 +1,74 @@
+package cmsc433.p0;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Given a <code>FileChannel</code> of little-endian <code>int32</code> or
+ * <code>int64</code> values, this class memory-maps its own slice of the
+ * file and finds the maximum over it. The values are read in place, so no
+ * element is copied onto the heap or boxed.
+ * <p>
+ * A single mapping cannot exceed 2 GB, so a large slice is mapped and
+ * scanned one window at a time.
+ */
+public class MappedMaximizerWorker extends Thread {
+
+	public static final long WINDOW_BYTES = 1L << 30; // largest region mapped at once
+
+	protected FileChannel channel;
+	protected long fromByte; // start of the slice, a multiple of the value width
+	protected long toByte; // end of the slice (exclusive)
+	protected int width; // 4 for int32 values, 8 for int64 values
+	protected long partialMax = Long.MIN_VALUE; // initialize to lowest value
+	protected IOException failure; // set if mapping failed, read after join
+
+	public MappedMaximizerWorker(FileChannel channel, long fromByte, long toByte, int width) {
+		this.channel = channel;
+		this.fromByte = fromByte;
+		this.toByte = toByte;
+		this.width = width;
+	}
+
+	/**
+	 * Map the slice window by window and update <code>partialMax</code>.
+	 */
+	public void run() {
+		try {
+			// keep windows a whole number of values long
+			long window = WINDOW_BYTES - WINDOW_BYTES % width;
+			for (long position = fromByte; position < toByte; position += window) {
+				long size = Math.min(window, toByte - position);
+				MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+				mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+				if (width == 4) {
+					int max = ParallelMaximizerStripeWorker.maxOf(mapped.asIntBuffer(), 0, (int) (size / 4));
+					if (max > partialMax)
+						partialMax = max;
+				} else {
+					LongBuffer longs = mapped.asLongBuffer();
+					for (int i = 0; i < longs.limit(); i++) {
+						long number = longs.get(i);
+						if (number > partialMax)
+							partialMax = number;
+					}
+				}
+			}
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	public long getPartialMax() {
+		return partialMax;
+	}
+
+	public IOException getFailure() {
+		return failure;
+	}
+
+}
@@ -0,0 +1,197 @@
+package cmsc433.p0;
+
+import java.nio.IntBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long-lived pool of pre-started threads for computing many maximums in a
+ * row. Creating and joining threads on every call costs far more than
+ * scanning a small input, so the threads are created once, and inputs
+ * shorter than <code>inlineCutoff</code> are scanned on the caller's thread
+ * without involving the pool at all.
+ * <p>
+ * A pool may be shared by several <code>ParallelMaximizers</code> and
+ * callers. Its threads are daemons; call <code>shutdown()</code> to release
+ * them earlier.
+ */
+public class MaximizerPool {
+
+	public static final int DEFAULT_INLINE_CUTOFF = 1 << 14; // elements scanned on the caller's thread
+
+	private final ThreadPoolExecutor executor;
+	private final int parallelism;
+	private final int inlineCutoff;
+
+	public MaximizerPool(int numThreads) {
+		this(numThreads, DEFAULT_INLINE_CUTOFF);
+	}
+
+	/**
+	 * @param numThreads Number of pool threads, started right away
+	 * @param inlineCutoff Inputs with fewer elements are scanned by the caller
+	 */
+	public MaximizerPool(int numThreads, int inlineCutoff) {
+		this.parallelism = numThreads;
+		this.inlineCutoff = inlineCutoff;
+		final AtomicInteger threadNumber = new AtomicInteger();
+		executor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "maximizer-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.prestartAllCoreThreads();
+	}
+
+	public int parallelism() {
+		return parallelism;
+	}
+
+	public int inlineCutoff() {
+		return inlineCutoff;
+	}
+
+	/**
+	 * Start finding the maximum of <code>array</code>.
+	 * @return Handle to wait for the result
+	 */
+	public Pending submit(int[] array) {
+		return submit(IntBuffer.wrap(array));
+	}
+
+	/**
+	 * Start finding the maximum of the remaining elements of
+	 * <code>buffer</code>, one contiguous stripe per pool thread. The buffer
+	 * must not be modified until the result is ready.
+	 * @return Handle to wait for the result
+	 */
+	public Pending submit(final IntBuffer buffer) {
+		int start = buffer.position();
+		int length = buffer.remaining();
+		if (length < inlineCutoff) {
+			Pending pending = new Pending(1);
+			pending.complete(0, ParallelMaximizerStripeWorker.maxOf(buffer, start, start + length));
+			return pending;
+		}
+
+		final Pending pending = new Pending(parallelism);
+		// the first (length % parallelism) stripes get one extra element
+		int stripe = length / parallelism;
+		int extra = length % parallelism;
+		int from = start;
+		for (int i = 0; i < parallelism; i++) {
+			final int slot = i;
+			final int stripeFrom = from;
+			final int stripeTo = from + stripe + (i < extra ? 1 : 0);
+			execute(pending, new Runnable() {
+				public void run() {
+					pending.complete(slot, ParallelMaximizerStripeWorker.maxOf(buffer, stripeFrom, stripeTo));
+				}
+			});
+			from = stripeTo;
+		}
+		return pending;
+	}
+
+	/**
+	 * Run the <code>run()</code> method of every worker on a pool thread
+	 * instead of starting the workers as threads of their own.
+	 * @return Handle to wait for the highest of their partial maximums
+	 */
+	public Pending submit(ParallelMaximizerWorker[] workers) {
+		final Pending pending = new Pending(workers.length);
+		for (int i = 0; i < workers.length; i++) {
+			final int slot = i;
+			final ParallelMaximizerWorker worker = workers[i];
+			execute(pending, new Runnable() {
+				public void run() {
+					worker.run();
+					pending.complete(slot, worker.getPartialMax());
+				}
+			});
+		}
+		return pending;
+	}
+
+	/**
+	 * Stop the pool threads once submitted work finishes.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Hand <code>task</code> to the pool, making sure <code>pending</code>
+	 * still completes if the task throws.
+	 */
+	private void execute(final Pending pending, final Runnable task) {
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					pending.fail(e);
+				} catch (Error e) {
+					pending.fail(e);
+					throw e;
+				}
+			}
+		});
+	}
+
+	/**
+	 * The result of a submitted maximum: one partial maximum per task, combined
+	 * when the last task completes.
+	 */
+	public static final class Pending {
+		private final int[] partials;
+		private final CountDownLatch remaining;
+		private volatile Throwable failure;
+
+		Pending(int tasks) {
+			partials = new int[tasks];
+			remaining = new CountDownLatch(tasks);
+		}
+
+		void complete(int slot, int partialMax) {
+			partials[slot] = partialMax; // published to await() by the latch
+			remaining.countDown();
+		}
+
+		void fail(Throwable e) {
+			failure = e;
+			remaining.countDown();
+		}
+
+		public boolean isDone() {
+			return remaining.getCount() == 0;
+		}
+
+		/**
+		 * Wait for every task to finish.
+		 * @return The highest partial maximum, or <code>Integer.MIN_VALUE</code>
+		 * if the input was empty
+		 * @throws InterruptedException
+		 * @throws IllegalStateException If a task threw; the task's exception is the cause
+		 */
+		public int await() throws InterruptedException {
+			remaining.await();
+			if (failure != null)
+				throw new IllegalStateException("maximizer task failed", failure);
+			int max = Integer.MIN_VALUE;
+			for (int i = 0; i < partials.length; i++) {
+				if (partials[i] > max)
+					max = partials[i];
+			}
+			return max;
+		}
+	}
+
+}
@@ -1,20 +1,47 @@
 package cmsc433.p0;
 
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * This class runs <code>numThreads</code> instances of
  * <code>ParallelMaximizerWorker</code> in parallel to find the maximum
- * <code>Integer</code> in a <code>LinkedList</code>.
+ * <code>Integer</code> in a <code>LinkedList</code>, or the maximum
+ * <code>int</code> in an array or <code>IntBuffer</code>.
+ * <p>
+ * By default every call starts and joins new threads. A maximizer built with
+ * a <code>MaximizerPool</code> reuses the pool's threads instead, which is
+ * what callers that compute many small maximums should use.
  */
 public class ParallelMaximizer {
 	
+	public static final int DEFAULT_BATCH_SIZE = 4096; // elements claimed per monitor acquisition
+	
 	ParallelMaximizerWorker[] workers;
+	MaximizerPool pool; // threads to run workers on, or null to start new ones per call
 
 	public ParallelMaximizer(int numThreads) {
 		workers = new ParallelMaximizerWorker[numThreads];
 	}
 	
+	/**
+	 * Maximizer whose workers run on the threads of <code>pool</code> instead
+	 * of being started as new threads on every call. Inputs shorter than the
+	 * pool's inline cutoff are scanned on the caller's thread.
+	 * @param numThreads Number of workers for <code>LinkedList</code> input
+	 * @param pool Pool shared by any number of maximizers
+	 */
+	public ParallelMaximizer(int numThreads, MaximizerPool pool) {
+		this(numThreads);
+		this.pool = pool;
+	}
+	
 	public static void main(String[] args) {
 		int numThreads = 4; // number of threads for the maximizer
 		int numElements = 10; // number of integers in the list
@@ -45,20 +72,193 @@ public class ParallelMaximizer {
 	 * @throws InterruptedException
 	 */
 	public int max(LinkedList<Integer> list) throws InterruptedException {
-		System.out.println("workers: " + workers.length);
-		int max = Integer.MIN_VALUE; // initialize max as lowest value
-
-		// start numThreads instances of ParallelMaximizerWorker
-		for (int i=0; i<workers.length; i++) {
+		// create numThreads instances of ParallelMaximizerWorker
+		for (int i=0; i<workers.length; i++)
 			workers[i] = new ParallelMaximizerWorker(list);
-			workers[i].start();
+		
+		return runWorkers(list.size());
+	}
+	
+	/**
+	 * Finds the maximum of an <code>int</code> array by splitting it into
+	 * <code>numThreads</code> contiguous stripes, one per
+	 * <code>ParallelMaximizerStripeWorker</code>. The array is not copied.
+	 * @param array Array of <code>ints</code>
+	 * @return Maximum element in the array, or <code>Integer.MIN_VALUE</code> if it is empty
+	 * @throws InterruptedException
+	 */
+	public int max(int[] array) throws InterruptedException {
+		return max(IntBuffer.wrap(array));
+	}
+	
+	/**
+	 * Finds the maximum of the remaining elements of an <code>IntBuffer</code>
+	 * (from its position to its limit) by splitting them into
+	 * <code>numThreads</code> contiguous stripes. Each
+	 * <code>ParallelMaximizerStripeWorker</code> scans its own stripe without
+	 * any shared lock, and the partial maximums are combined at the end. The
+	 * buffer's position is left unchanged.
+	 * @param buffer <code>IntBuffer</code>, heap or direct
+	 * @return Maximum remaining element, or <code>Integer.MIN_VALUE</code> if there is none
+	 * @throws InterruptedException
+	 */
+	public int max(IntBuffer buffer) throws InterruptedException {
+		if (pool != null)
+			return pool.submit(buffer).await(); // one stripe per pool thread
+		
+		int start = buffer.position();
+		int length = buffer.remaining();
+		
+		// give each worker a stripe; the first (length % workers) get one extra element
+		int stripe = length / workers.length;
+		int extra = length % workers.length;
+		int from = start;
+		for (int i=0; i<workers.length; i++) {
+			int to = from + stripe + (i < extra ? 1 : 0);
+			workers[i] = new ParallelMaximizerStripeWorker(buffer, from, to);
+			from = to;
 		}
-		// wait for threads to finish
+		return runWorkers(length);
+	}
+	
+	/**
+	 * Like <code>max(LinkedList)</code>, but each worker removes
+	 * <code>DEFAULT_BATCH_SIZE</code> elements per acquisition of the list's
+	 * monitor, and idle workers steal from batches still in progress.
+	 * @param list <code>LinkedList</code> containing <code>Integers</code>
+	 * @return Maximum element in the <code>LinkedList</code>
+	 * @throws InterruptedException
+	 */
+	public int maxBatched(LinkedList<Integer> list) throws InterruptedException {
+		return maxBatched(list, DEFAULT_BATCH_SIZE);
+	}
+	
+	/**
+	 * Finds the maximum by using <code>numThreads</code> instances of
+	 * <code>ParallelMaximizerBatchWorker</code> that each remove up to
+	 * <code>batchSize</code> elements per acquisition of the list's monitor.
+	 * @param list <code>LinkedList</code> containing <code>Integers</code>
+	 * @param batchSize Number of elements claimed at once
+	 * @return Maximum element in the <code>LinkedList</code>
+	 * @throws InterruptedException
+	 */
+	public int maxBatched(LinkedList<Integer> list, int batchSize) throws InterruptedException {
+		AtomicReferenceArray<ParallelMaximizerBatchWorker.Batch> board =
+				new AtomicReferenceArray<ParallelMaximizerBatchWorker.Batch>(workers.length);
+		for (int i=0; i<workers.length; i++)
+			workers[i] = new ParallelMaximizerBatchWorker(list, batchSize, board, i);
+		return runWorkers(list.size());
+	}
+	
+	/**
+	 * Finds the maximum over a queue of <code>int[]</code> chunks. Workers
+	 * poll whole chunks without locking (the queue should be a lock-free one
+	 * such as <code>ConcurrentLinkedQueue</code>) and steal from chunks other
+	 * workers are still scanning.
+	 * @param chunks Queue of chunks; it is drained by this call
+	 * @return Maximum element over all chunks
+	 * @throws InterruptedException
+	 */
+	public int maxOfChunks(Queue<int[]> chunks) throws InterruptedException {
+		AtomicReferenceArray<ParallelMaximizerBatchWorker.Batch> board =
+				new AtomicReferenceArray<ParallelMaximizerBatchWorker.Batch>(workers.length);
 		for (int i=0; i<workers.length; i++)
-			workers[i].join();
+			workers[i] = new ParallelMaximizerBatchWorker(chunks, board, i);
+		return runWorkers(Integer.MAX_VALUE); // size unknown, never run inline
+	}
+	
+	/**
+	 * Finds the maximum of a binary file of little-endian <code>int32</code>
+	 * values. The file is memory-mapped and split into <code>numThreads</code>
+	 * slices, one per <code>MappedMaximizerWorker</code>, so nothing is
+	 * copied onto the heap. Trailing bytes that do not form a whole value are
+	 * ignored.
+	 * @param file File to read
+	 * @return Maximum value in the file, or <code>Integer.MIN_VALUE</code> if it holds none
+	 * @throws IOException If the file cannot be opened or mapped
+	 * @throws InterruptedException
+	 */
+	public int maxInt32(Path file) throws IOException, InterruptedException {
+		long max = maxMapped(file, 4);
+		return max == Long.MIN_VALUE ? Integer.MIN_VALUE : (int) max;
+	}
+	
+	/**
+	 * Like <code>maxInt32</code>, but for a file of little-endian
+	 * <code>int64</code> values.
+	 * @param file File to read
+	 * @return Maximum value in the file, or <code>Long.MIN_VALUE</code> if it holds none
+	 * @throws IOException If the file cannot be opened or mapped
+	 * @throws InterruptedException
+	 */
+	public long maxInt64(Path file) throws IOException, InterruptedException {
+		return maxMapped(file, 8);
+	}
+	
+	/**
+	 * Map <code>file</code> in one slice per worker and combine the partial
+	 * maximums of values <code>width</code> bytes wide.
+	 */
+	private long maxMapped(Path file, int width) throws IOException, InterruptedException {
+		long max = Long.MIN_VALUE; // initialize max as lowest value
+		MappedMaximizerWorker[] mappedWorkers = new MappedMaximizerWorker[workers.length];
+		
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long values = channel.size() / width;
+			
+			// give each worker a slice of whole values; the first (values % workers) get one extra
+			long slice = values / mappedWorkers.length;
+			long extra = values % mappedWorkers.length;
+			long from = 0;
+			for (int i=0; i<mappedWorkers.length; i++) {
+				long to = from + slice + (i < extra ? 1 : 0);
+				mappedWorkers[i] = new MappedMaximizerWorker(channel, from * width, to * width, width);
+				mappedWorkers[i].start();
+				from = to;
+			}
+			// wait for threads to finish before the channel is closed
+			for (int i=0; i<mappedWorkers.length; i++)
+				mappedWorkers[i].join();
+		}
+		
+		// take the highest of the partial maximums
+		for (int i = 0; i < mappedWorkers.length; i++)
+		{
+			if (mappedWorkers[i].getFailure() != null)
+				throw mappedWorkers[i].getFailure();
+			if (mappedWorkers[i].getPartialMax() > max)
+				max = mappedWorkers[i].getPartialMax();
+		}
+		
+		return max;
+	}
+	
+	/**
+	 * Run every worker in <code>workers</code>, wait for them and combine
+	 * their partial maximums. Without a pool each worker is started as a new
+	 * thread; with one, the workers run on pool threads, or one after the
+	 * other on the caller's thread if the input is below the inline cutoff.
+	 * @param inputSize Number of elements the workers will scan
+	 */
+	private int runWorkers(int inputSize) throws InterruptedException {
+		int max = Integer.MIN_VALUE; // initialize max as lowest value
+		
+		if (pool != null && inputSize >= pool.inlineCutoff())
+			return pool.submit(workers).await();
+		
+		if (pool != null) {
+			for (int i=0; i<workers.length; i++)
+				workers[i].run();
+		} else {
+			// start numThreads instances of the workers
+			for (int i=0; i<workers.length; i++)
+				workers[i].start();
+			// wait for threads to finish
+			for (int i=0; i<workers.length; i++)
+				workers[i].join();
+		}
 		
 		// take the highest of the partial maximums
-		// TODO: IMPLEMENT CODE HERE
 		for (int i = 0; i < workers.length; i++)
 		{
 			if (workers[i].getPartialMax() > max)
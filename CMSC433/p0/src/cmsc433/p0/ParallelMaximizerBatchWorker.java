@@ -0,0 +1,134 @@
+package cmsc433.p0;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Like <code>ParallelMaximizerWorker</code>, but claims whole batches of
+ * elements at a time instead of one element per monitor acquisition. Batches
+ * come either from a shared <code>LinkedList</code> (one
+ * <code>synchronized(list)</code> per batch) or from a lock-free
+ * <code>Queue</code> of <code>int[]</code> chunks.
+ * <p>
+ * Each worker publishes the batch it is working on in a shared board and
+ * consumes it in small slices. A worker that finds the input exhausted
+ * steals the remaining slices of other workers' batches, so one slow worker
+ * cannot hold the result back by a whole batch.
+ */
+public class ParallelMaximizerBatchWorker extends ParallelMaximizerWorker {
+
+	public static final int STEAL_GRAIN = 256; // elements claimed per slice
+
+	protected Queue<int[]> chunks; // lock-free chunk source, or null to batch from list
+	protected int batchSize;
+	protected AtomicReferenceArray<Batch> board; // current batch of every worker
+	protected int index; // this worker's slot on the board
+
+	/**
+	 * Worker that removes up to <code>batchSize</code> elements from
+	 * <code>list</code> per monitor acquisition.
+	 */
+	public ParallelMaximizerBatchWorker(LinkedList<Integer> list, int batchSize,
+			AtomicReferenceArray<Batch> board, int index) {
+		super(list);
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+		this.batchSize = batchSize;
+		this.board = board;
+		this.index = index;
+	}
+
+	/**
+	 * Worker that polls whole chunks from <code>chunks</code> without locking.
+	 */
+	public ParallelMaximizerBatchWorker(Queue<int[]> chunks,
+			AtomicReferenceArray<Batch> board, int index) {
+		super(null);
+		this.chunks = chunks;
+		this.board = board;
+		this.index = index;
+	}
+
+	/**
+	 * Claim batches until the input is exhausted, then help the other workers
+	 * finish theirs.
+	 */
+	public void run() {
+		Batch batch;
+		while ((batch = nextBatch()) != null) {
+			board.set(index, batch);
+			consume(batch);
+		}
+		board.set(index, null);
+
+		// input exhausted: steal slices from batches still in progress
+		for (int i = 0; i < board.length(); i++) {
+			Batch victim = board.get(i);
+			if (victim != null)
+				consume(victim);
+		}
+	}
+
+	/**
+	 * @return The next batch from the input, or null if it is exhausted
+	 */
+	protected Batch nextBatch() {
+		if (chunks != null) {
+			int[] chunk = chunks.poll();
+			return chunk == null ? null : new Batch(chunk, chunk.length);
+		}
+
+		int[] values = new int[batchSize];
+		int count = 0;
+		// one monitor acquisition for the whole batch
+		synchronized(list) {
+			while (count < batchSize && !list.isEmpty())
+				values[count++] = list.remove();
+		}
+		return count == 0 ? null : new Batch(values, count);
+	}
+
+	/**
+	 * Claim slices of <code>batch</code> until none are left, updating
+	 * <code>partialMax</code>.
+	 */
+	protected void consume(Batch batch) {
+		int from;
+		while ((from = batch.claim(STEAL_GRAIN)) >= 0) {
+			int to = Math.min(from + STEAL_GRAIN, batch.length);
+			for (int i = from; i < to; i++) {
+				if (batch.values[i] > partialMax)
+					partialMax = batch.values[i];
+			}
+		}
+	}
+
+	/**
+	 * A claimed batch. Slices are handed out by bumping <code>next</code>, so
+	 * the owner and any thieves never scan the same element twice.
+	 */
+	public static final class Batch {
+		final int[] values;
+		final int length;
+		private final AtomicInteger next = new AtomicInteger();
+
+		Batch(int[] values, int length) {
+			this.values = values;
+			this.length = length;
+		}
+
+		/**
+		 * @return Start of a slice of up to <code>grain</code> elements, or -1 if
+		 * the batch is used up
+		 */
+		int claim(int grain) {
+			if (next.get() >= length)
+				return -1; // avoid growing the counter once it is exhausted
+			int from = next.getAndAdd(grain);
+			return from < length ? from : -1;
+		}
+	}
+
+}
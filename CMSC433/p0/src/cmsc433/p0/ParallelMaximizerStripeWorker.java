@@ -0,0 +1,55 @@
+package cmsc433.p0;
+
+import java.nio.IntBuffer;
+
+/**
+ * Given an <code>IntBuffer</code>, this class will find the maximum over a
+ * contiguous stripe <code>[from, to)</code> of it. Stripes never overlap, so
+ * unlike <code>ParallelMaximizerWorker</code> no lock is needed and no
+ * <code>Integer</code> is ever allocated.
+ */
+public class ParallelMaximizerStripeWorker extends ParallelMaximizerWorker {
+
+	protected IntBuffer buffer;
+	protected int from; // first absolute index of the stripe (inclusive)
+	protected int to; // last absolute index of the stripe (exclusive)
+
+	public ParallelMaximizerStripeWorker(IntBuffer buffer, int from, int to) {
+		super(null);
+		this.buffer = buffer;
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * Scan the stripe once and store its maximum in <code>partialMax</code>.
+	 */
+	public void run() {
+		partialMax = maxOf(buffer, from, to);
+	}
+
+	/**
+	 * Finds the maximum of <code>buffer</code> between the absolute indices
+	 * <code>from</code> (inclusive) and <code>to</code> (exclusive). Only
+	 * absolute reads are used, so many threads may scan the same buffer.
+	 * @param buffer <code>IntBuffer</code> to scan
+	 * @param from First index to read
+	 * @param to One past the last index to read
+	 * @return Maximum in the range, or <code>Integer.MIN_VALUE</code> if it is empty
+	 */
+	public static int maxOf(IntBuffer buffer, int from, int to) {
+		if (buffer.hasArray()) {
+			// heap buffers: hand the backing array to the fastest available kernel
+			int offset = buffer.arrayOffset();
+			return IntMaxKernel.INSTANCE.max(buffer.array(), from + offset, to + offset);
+		}
+		int max = Integer.MIN_VALUE;
+		for (int i = from; i < to; i++) {
+			int number = buffer.get(i);
+			if (number > max)
+				max = number;
+		}
+		return max;
+	}
+
+}
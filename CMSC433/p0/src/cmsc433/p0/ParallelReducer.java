@@ -0,0 +1,155 @@
+package cmsc433.p0;
+
+import java.nio.IntBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntPredicate;
+
+/**
+ * Runs any <code>Reduction</code> over an <code>int</code> array or
+ * <code>IntBuffer</code> on a <code>ForkJoinPool</code>. The input is split in
+ * halves until a range holds at most <code>threshold</code> elements, each
+ * range is reduced serially, and the partial results are combined on the way
+ * back up. Idle pool threads steal unsplit halves, so every core stays busy
+ * without a dedicated worker class per reduction.
+ * <p>
+ * One <code>ParallelReducer</code> can be shared by any number of callers.
+ */
+public class ParallelReducer {
+
+	public static final int DEFAULT_THRESHOLD = 1 << 14; // elements per leaf range
+
+	private final ForkJoinPool pool;
+	private final int threshold;
+
+	/**
+	 * Reducer backed by the common pool with the default split threshold.
+	 */
+	public ParallelReducer() {
+		this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Reducer backed by a new pool of <code>parallelism</code> threads.
+	 * @param parallelism Number of pool threads
+	 * @param threshold Largest range reduced without splitting further
+	 */
+	public ParallelReducer(int parallelism, int threshold) {
+		this(new ForkJoinPool(parallelism), threshold);
+	}
+
+	public ParallelReducer(ForkJoinPool pool, int threshold) {
+		if (threshold < 1)
+			throw new IllegalArgumentException("threshold must be positive: " + threshold);
+		this.pool = pool;
+		this.threshold = threshold;
+	}
+
+	public int threshold() {
+		return threshold;
+	}
+
+	/**
+	 * Reduces the remaining elements of <code>buffer</code> (from its position
+	 * to its limit). Indices seen by the <code>Reduction</code>, such as those
+	 * reported by <code>Reductions.ARGMAX</code>, are relative to the position.
+	 * The buffer's position is left unchanged.
+	 * @param buffer Input, heap or direct
+	 * @param reduction What to compute
+	 * @return Result of the reduction
+	 */
+	public <R> R reduce(IntBuffer buffer, Reduction<R> reduction) {
+		IntBuffer input = buffer.slice();
+		if (input.remaining() == 0)
+			return reduction.identity();
+		return pool.invoke(new ReduceTask<R>(input, 0, input.remaining(), reduction));
+	}
+
+	public <R> R reduce(int[] array, Reduction<R> reduction) {
+		return reduce(IntBuffer.wrap(array), reduction);
+	}
+
+	/**
+	 * @param array Input
+	 * @param identity Neutral element of <code>op</code>
+	 * @param op Associative operator
+	 * @return All elements folded with <code>op</code>
+	 */
+	public int reduce(int[] array, int identity, IntBinaryOperator op) {
+		return reduce(array, Reductions.of(identity, op));
+	}
+
+	public int min(int[] array) {
+		return reduce(array, Reductions.MIN);
+	}
+
+	public int max(int[] array) {
+		return reduce(array, Reductions.MAX);
+	}
+
+	public long sum(int[] array) {
+		return reduce(array, Reductions.SUM);
+	}
+
+	public long count(int[] array, IntPredicate predicate) {
+		return reduce(array, Reductions.count(predicate));
+	}
+
+	/**
+	 * @return Index of the largest element (the first one on ties), or -1 if
+	 * <code>array</code> is empty
+	 */
+	public int argmax(int[] array) {
+		return reduce(array, Reductions.ARGMAX).index;
+	}
+
+	/**
+	 * @return The <code>k</code> largest elements, largest first
+	 */
+	public int[] topK(int[] array, int k) {
+		return reduce(array, Reductions.topK(k)).toSortedArray();
+	}
+
+	/**
+	 * Stop the pool threads once pending reductions finish. Has no effect on
+	 * the common pool.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Reduces <code>[from, to)</code>, splitting it in half while it is larger
+	 * than <code>threshold</code>.
+	 */
+	private class ReduceTask<R> extends RecursiveTask<R> {
+		private static final long serialVersionUID = 1L;
+
+		private final IntBuffer buffer;
+		private final int from;
+		private final int to;
+		private final Reduction<R> reduction;
+
+		ReduceTask(IntBuffer buffer, int from, int to, Reduction<R> reduction) {
+			this.buffer = buffer;
+			this.from = from;
+			this.to = to;
+			this.reduction = reduction;
+		}
+
+		@Override
+		protected R compute() {
+			if (to - from <= threshold)
+				return reduction.reduce(buffer, from, to);
+
+			int mid = (from + to) >>> 1;
+			ReduceTask<R> left = new ReduceTask<R>(buffer, from, mid, reduction);
+			ReduceTask<R> right = new ReduceTask<R>(buffer, mid, to, reduction);
+			left.fork(); // leave the left half for a thief, work on the right half here
+			R rightResult = right.compute();
+			return reduction.combine(left.join(), rightResult);
+		}
+	}
+
+}
@@ -0,0 +1,43 @@
+package cmsc433.p0;
+
+import java.nio.IntBuffer;
+
+/**
+ * An associative reduction over <code>ints</code> that
+ * <code>ParallelReducer</code> can split across a <code>ForkJoinPool</code>.
+ * <p>
+ * <code>reduce</code> folds one contiguous range into a partial result
+ * starting from <code>identity()</code>, and <code>combine</code> merges the
+ * partial results of two adjacent ranges (left before right). For the
+ * parallel answer to match the serial one, <code>combine</code> must be
+ * associative and <code>identity()</code> must be its neutral element.
+ * @param <R> Type of the (partial) result
+ */
+public interface Reduction<R> {
+
+	/**
+	 * @return A fresh neutral partial result, also the answer for empty input
+	 */
+	R identity();
+
+	/**
+	 * Reduces the elements of <code>buffer</code> between the absolute indices
+	 * <code>from</code> (inclusive) and <code>to</code> (exclusive). Only
+	 * absolute reads may be used, since other ranges are read concurrently.
+	 * @param buffer Input, indexed from 0
+	 * @param from First index to read
+	 * @param to One past the last index to read
+	 * @return Partial result for the range
+	 */
+	R reduce(IntBuffer buffer, int from, int to);
+
+	/**
+	 * Merges the partial results of two adjacent ranges. May reuse either
+	 * argument.
+	 * @param left Partial result of the range on the left
+	 * @param right Partial result of the range on the right
+	 * @return Partial result of both ranges together
+	 */
+	R combine(R left, R right);
+
+}
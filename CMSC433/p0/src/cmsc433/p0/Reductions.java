@@ -0,0 +1,174 @@
+package cmsc433.p0;
+
+import java.nio.IntBuffer;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntPredicate;
+
+/**
+ * Built-in <code>Reductions</code> for <code>ParallelReducer</code>: min,
+ * max, sum, count, argmax and top-k, plus <code>of</code> for any associative
+ * <code>IntBinaryOperator</code>. Every leaf loop works on primitive
+ * <code>ints</code>; a result is boxed at most once per range.
+ */
+public final class Reductions {
+
+	private Reductions() {
+	}
+
+	/**
+	 * Result of <code>ARGMAX</code>: the position of the largest element and
+	 * the element itself. Ties go to the lowest index.
+	 */
+	public static final class IndexedValue {
+		public final int index; // -1 if the input was empty
+		public final int value;
+
+		public IndexedValue(int index, int value) {
+			this.index = index;
+			this.value = value;
+		}
+
+		@Override
+		public String toString() {
+			return value + "@" + index;
+		}
+	}
+
+	public static final Reduction<Integer> MIN = of(Integer.MAX_VALUE, Math::min);
+
+	public static final Reduction<Integer> MAX = new Reduction<Integer>() {
+		public Integer identity() {
+			return Integer.MIN_VALUE;
+		}
+
+		public Integer reduce(IntBuffer buffer, int from, int to) {
+			return ParallelMaximizerStripeWorker.maxOf(buffer, from, to);
+		}
+
+		public Integer combine(Integer left, Integer right) {
+			return Math.max(left, right);
+		}
+	};
+
+	/**
+	 * Sums into a <code>long</code> so large inputs cannot overflow.
+	 */
+	public static final Reduction<Long> SUM = new Reduction<Long>() {
+		public Long identity() {
+			return 0L;
+		}
+
+		public Long reduce(IntBuffer buffer, int from, int to) {
+			long sum = 0;
+			for (int i = from; i < to; i++)
+				sum += buffer.get(i);
+			return sum;
+		}
+
+		public Long combine(Long left, Long right) {
+			return left + right;
+		}
+	};
+
+	public static final Reduction<IndexedValue> ARGMAX = new Reduction<IndexedValue>() {
+		public IndexedValue identity() {
+			return new IndexedValue(-1, Integer.MIN_VALUE);
+		}
+
+		public IndexedValue reduce(IntBuffer buffer, int from, int to) {
+			int index = -1;
+			int max = Integer.MIN_VALUE;
+			for (int i = from; i < to; i++) {
+				int number = buffer.get(i);
+				if (index == -1 || number > max) {
+					index = i;
+					max = number;
+				}
+			}
+			return new IndexedValue(index, max);
+		}
+
+		public IndexedValue combine(IndexedValue left, IndexedValue right) {
+			// left covers lower indices, so it only loses to a strictly larger value
+			if (left.index == -1)
+				return right;
+			if (right.index == -1 || left.value >= right.value)
+				return left;
+			return right;
+		}
+	};
+
+	/**
+	 * @param identity Neutral element of <code>op</code>
+	 * @param op Associative operator
+	 * @return <code>Reduction</code> folding every element with <code>op</code>
+	 */
+	public static Reduction<Integer> of(final int identity, final IntBinaryOperator op) {
+		return new Reduction<Integer>() {
+			public Integer identity() {
+				return identity;
+			}
+
+			public Integer reduce(IntBuffer buffer, int from, int to) {
+				int result = identity;
+				for (int i = from; i < to; i++)
+					result = op.applyAsInt(result, buffer.get(i));
+				return result;
+			}
+
+			public Integer combine(Integer left, Integer right) {
+				return op.applyAsInt(left, right);
+			}
+		};
+	}
+
+	/**
+	 * @param predicate Condition to count
+	 * @return <code>Reduction</code> counting the elements matching <code>predicate</code>
+	 */
+	public static Reduction<Long> count(final IntPredicate predicate) {
+		return new Reduction<Long>() {
+			public Long identity() {
+				return 0L;
+			}
+
+			public Long reduce(IntBuffer buffer, int from, int to) {
+				long count = 0;
+				for (int i = from; i < to; i++) {
+					if (predicate.test(buffer.get(i)))
+						count++;
+				}
+				return count;
+			}
+
+			public Long combine(Long left, Long right) {
+				return left + right;
+			}
+		};
+	}
+
+	/**
+	 * @param k Number of values to keep
+	 * @return <code>Reduction</code> keeping the <code>k</code> largest elements
+	 */
+	public static Reduction<TopKHeap> topK(final int k) {
+		return new Reduction<TopKHeap>() {
+			public TopKHeap identity() {
+				return new TopKHeap(k);
+			}
+
+			public TopKHeap reduce(IntBuffer buffer, int from, int to) {
+				TopKHeap heap = new TopKHeap(k);
+				for (int i = from; i < to; i++)
+					heap.offer(buffer.get(i));
+				return heap;
+			}
+
+			public TopKHeap combine(TopKHeap left, TopKHeap right) {
+				left.addAll(right);
+				return left;
+			}
+		};
+	}
+
+}
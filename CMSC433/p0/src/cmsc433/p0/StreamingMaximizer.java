@@ -0,0 +1,99 @@
+package cmsc433.p0;
+
+import java.io.IOException;
+
+/**
+ * This class runs <code>numThreads</code> instances of
+ * <code>StreamingMaximizerWorker</code> over a shared <code>IntSource</code>.
+ * Unlike <code>ParallelMaximizer</code>, the input never has to be in memory:
+ * each worker keeps only a running maximum and a bounded top-k heap, and the
+ * current answer can be read at any moment without pausing ingestion.
+ */
+public class StreamingMaximizer {
+
+	public static final int DEFAULT_BATCH_SIZE = 1024; // elements read from the source at once
+
+	StreamingMaximizerWorker[] workers;
+	private final int k;
+
+	/**
+	 * @param numThreads Number of workers reading from the source
+	 * @param k Number of largest elements to track; 0 to track only the maximum
+	 * @param source Source shared by all workers
+	 */
+	public StreamingMaximizer(int numThreads, int k, IntSource source) {
+		this(numThreads, k, source, DEFAULT_BATCH_SIZE);
+	}
+
+	public StreamingMaximizer(int numThreads, int k, IntSource source, int batchSize) {
+		this.k = k;
+		workers = new StreamingMaximizerWorker[numThreads];
+		for (int i=0; i<workers.length; i++)
+			workers[i] = new StreamingMaximizerWorker(source, batchSize, k);
+	}
+
+	/**
+	 * Start ingesting. May only be called once.
+	 */
+	public void start() {
+		for (int i=0; i<workers.length; i++)
+			workers[i].start();
+	}
+
+	/**
+	 * @return The maximum of everything read so far, or
+	 * <code>Integer.MIN_VALUE</code> if nothing has been read yet
+	 */
+	public int currentMax() {
+		int max = Integer.MIN_VALUE;
+		for (int i=0; i<workers.length; i++)
+			max = Math.max(max, workers[i].getPartialMax());
+		return max;
+	}
+
+	/**
+	 * @return The <code>k</code> largest elements read so far, largest first
+	 */
+	public int[] currentTopK() {
+		TopKHeap merged = new TopKHeap(k);
+		for (int i=0; i<workers.length; i++)
+			workers[i].mergeTopK(merged);
+		return merged.toSortedArray();
+	}
+
+	/**
+	 * @return Number of elements read so far
+	 */
+	public long count() {
+		long count = 0;
+		for (int i=0; i<workers.length; i++)
+			count += workers[i].getCount();
+		return count;
+	}
+
+	/**
+	 * Stop every worker after its current batch. Call
+	 * <code>awaitCompletion()</code> to wait for them.
+	 */
+	public void stop() {
+		for (int i=0; i<workers.length; i++)
+			workers[i].halt();
+	}
+
+	/**
+	 * Wait until the source is exhausted or <code>stop()</code> has taken effect.
+	 * @return The final maximum
+	 * @throws InterruptedException
+	 * @throws IOException If the source failed in any worker
+	 */
+	public int awaitCompletion() throws InterruptedException, IOException {
+		for (int i=0; i<workers.length; i++)
+			workers[i].join();
+		for (int i=0; i<workers.length; i++) {
+			if (workers[i].getFailure() != null)
+				throw workers[i].getFailure();
+		}
+		return currentMax();
+	}
+
+}
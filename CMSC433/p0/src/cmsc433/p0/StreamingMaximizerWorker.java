@@ -0,0 +1,94 @@
+package cmsc433.p0;
+
+import java.io.IOException;
+
+/**
+ * Given an <code>IntSource</code>, this class keeps a running maximum and a
+ * bounded top-k heap over the elements it reads, until the source is
+ * exhausted or the worker is stopped. Both can be read by other threads at
+ * any time while the worker runs.
+ */
+public class StreamingMaximizerWorker extends Thread {
+
+	protected IntSource source;
+	protected int[] batch; // reused for every read
+	protected volatile int partialMax = Integer.MIN_VALUE; // initialize to lowest value
+	protected volatile long count = 0; // elements seen so far
+	protected TopKHeap topK; // guarded by its own monitor
+	protected volatile boolean stopped = false;
+	protected IOException failure; // set if the source failed, read after join
+
+	public StreamingMaximizerWorker(IntSource source, int batchSize, int k) {
+		this.source = source;
+		this.batch = new int[batchSize];
+		this.topK = new TopKHeap(k);
+	}
+
+	/**
+	 * Read batches and update <code>partialMax</code> and <code>topK</code>
+	 * until the source is exhausted or <code>halt()</code> is called.
+	 */
+	public void run() {
+		try {
+			while (!stopped) {
+				int n = source.read(batch);
+				if (n < 0)
+					return; // source exhausted
+
+				// one volatile write per batch rather than per element
+				int max = partialMax;
+				for (int i = 0; i < n; i++) {
+					if (batch[i] > max)
+						max = batch[i];
+				}
+				partialMax = max;
+
+				if (topK.capacity() > 0) {
+					synchronized(topK) {
+						for (int i = 0; i < n; i++)
+							topK.offer(batch[i]);
+					}
+				}
+				count += n; // only this thread writes count
+			}
+		} catch (InterruptedException e) {
+			// halt() interrupts workers blocked on the source; anything else is unexpected
+			if (!stopped)
+				e.printStackTrace();
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	/**
+	 * Ask the worker to stop after its current batch. A worker blocked on a
+	 * <code>BlockingQueue</code> is woken up; one blocked on an
+	 * <code>InputStream</code> stops once its read returns.
+	 */
+	public void halt() {
+		stopped = true;
+		interrupt();
+	}
+
+	public int getPartialMax() {
+		return partialMax;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Add this worker's current top-k to <code>into</code>.
+	 */
+	public void mergeTopK(TopKHeap into) {
+		synchronized(topK) {
+			into.addAll(topK);
+		}
+	}
+
+	public IOException getFailure() {
+		return failure;
+	}
+
+}
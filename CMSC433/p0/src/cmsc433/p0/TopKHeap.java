@@ -0,0 +1,90 @@
+package cmsc433.p0;
+
+import java.util.Arrays;
+
+/**
+ * A bounded min-heap of <code>ints</code> that keeps the <code>k</code>
+ * largest values offered to it. The smallest kept value sits at the root, so
+ * a new value either loses against it in O(1) or replaces it in O(log k).
+ * <p>
+ * Not thread-safe: each worker keeps its own heap and the heaps are merged
+ * afterwards.
+ */
+public class TopKHeap {
+
+	private final int[] heap;
+	private int size = 0;
+
+	public TopKHeap(int k) {
+		if (k < 0)
+			throw new IllegalArgumentException("k must not be negative: " + k);
+		heap = new int[k];
+	}
+
+	public int capacity() {
+		return heap.length;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Offer a value to the heap.
+	 * @param value Value to keep if it is among the <code>k</code> largest so far
+	 */
+	public void offer(int value) {
+		if (size < heap.length) {
+			// still filling up: sift the new value up from the bottom
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (heap[parent] <= value)
+					break;
+				heap[i] = heap[parent];
+				i = parent;
+			}
+			heap[i] = value;
+		} else if (size > 0 && value > heap[0]) {
+			// replace the smallest kept value and sift it down
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size)
+					break;
+				if (child + 1 < size && heap[child + 1] < heap[child])
+					child++;
+				if (value <= heap[child])
+					break;
+				heap[i] = heap[child];
+				i = child;
+			}
+			heap[i] = value;
+		}
+	}
+
+	/**
+	 * Offer every value kept by <code>other</code> to this heap.
+	 * @param other Heap to merge in; it is left unchanged
+	 */
+	public void addAll(TopKHeap other) {
+		for (int i = 0; i < other.size; i++)
+			offer(other.heap[i]);
+	}
+
+	/**
+	 * @return The kept values, largest first
+	 */
+	public int[] toSortedArray() {
+		int[] sorted = Arrays.copyOf(heap, size);
+		Arrays.sort(sorted);
+		// reverse into descending order
+		for (int i = 0, j = sorted.length - 1; i < j; i++, j--) {
+			int tmp = sorted[i];
+			sorted[i] = sorted[j];
+			sorted[j] = tmp;
+		}
+		return sorted;
+	}
+
+}
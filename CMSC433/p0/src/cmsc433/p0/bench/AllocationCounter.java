@@ -0,0 +1,78 @@
+package cmsc433.p0.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Approximates the number of bytes allocated on the heap by all threads,
+ * including short-lived worker threads that per-thread counters would miss.
+ * <p>
+ * New objects are allocated in the eden space, so allocation is the current
+ * eden occupancy plus whatever every young collection has emptied out of it
+ * so far. Eden occupancy is only as precise as the collector reports it
+ * (whole regions under G1), so readings should be taken over many operations.
+ */
+class AllocationCounter {
+
+	private final List<MemoryPoolMXBean> edens = new ArrayList<MemoryPoolMXBean>();
+	private final AtomicLong collected = new AtomicLong(); // bytes freed from eden by collections
+
+	AllocationCounter() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getName().contains("Eden"))
+				edens.add(pool);
+		}
+
+		NotificationListener listener = new NotificationListener() {
+			public void handleNotification(Notification notification, Object handback) {
+				if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+					return;
+				GarbageCollectionNotificationInfo info =
+						GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+				Map<String, MemoryUsage> before = info.getGcInfo().getMemoryUsageBeforeGc();
+				Map<String, MemoryUsage> after = info.getGcInfo().getMemoryUsageAfterGc();
+				for (MemoryPoolMXBean eden : edens) {
+					MemoryUsage edenBefore = before.get(eden.getName());
+					MemoryUsage edenAfter = after.get(eden.getName());
+					if (edenBefore != null && edenAfter != null)
+						collected.addAndGet(edenBefore.getUsed() - edenAfter.getUsed());
+				}
+			}
+		};
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (collector instanceof NotificationEmitter)
+				((NotificationEmitter) collector).addNotificationListener(listener, null, null);
+		}
+	}
+
+	/**
+	 * @return False if this JVM exposes no eden pool, in which case every reading is 0
+	 */
+	boolean isSupported() {
+		return !edens.isEmpty();
+	}
+
+	/**
+	 * @return Approximate bytes allocated since the JVM started
+	 */
+	long allocatedBytes() {
+		long bytes = collected.get();
+		for (MemoryPoolMXBean eden : edens)
+			bytes += eden.getUsage().getUsed();
+		return bytes;
+	}
+
+}
@@ -0,0 +1,251 @@
+package cmsc433.p0.bench;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import cmsc433.p0.MaximizerPool;
+import cmsc433.p0.ParallelMaximizer;
+import cmsc433.p0.ParallelReducer;
+
+/**
+ * Compares the ways <code>cmsc433.p0</code> can find a maximum, across input
+ * sizes and thread counts, and reports throughput and allocation rate for
+ * each combination:
+ * <ul>
+ * <li><b>locked-list</b>: <code>ParallelMaximizer.max(LinkedList)</code>, one
+ * monitor acquisition per element</li>
+ * <li><b>striped-array</b>: <code>ParallelMaximizer.max(int[])</code></li>
+ * <li><b>pooled-array</b>: the same on a <code>MaximizerPool</code>, so no
+ * threads are created per call and small inputs are scanned inline</li>
+ * <li><b>fork-join</b>: <code>ParallelReducer.max(int[])</code></li>
+ * <li><b>parallel-stream</b>: <code>Arrays.stream(int[]).parallel().max()</code>
+ * run inside a pool of the given size</li>
+ * </ul>
+ * Each combination is warmed up before it is measured, and only the call
+ * itself is timed: rebuilding the list that <code>max(LinkedList)</code>
+ * drains happens outside the measurement.
+ * <p>
+ * Usage: <code>ReductionBenchmark [maxSize [maxThreads [measureMs]]]</code>.
+ * Sizes go from 1e3 up to <code>maxSize</code> (default 1e8) by powers of
+ * ten; thread counts double from 1 up to <code>maxThreads</code> (default
+ * the number of processors). The locked list holds boxed elements, so it is
+ * skipped above <code>-Dbench.maxListSize</code> (default 1e6). 1e8 ints
+ * need a heap of at least 1 GB.
+ */
+public class ReductionBenchmark {
+
+	private static final int WARMUP_MS = 500; // time spent warming up each combination
+	private static final int MIN_OPERATIONS = 5; // measured calls per combination, however slow
+
+	/**
+	 * One way of computing the maximum, set up for a given input and thread count.
+	 */
+	private interface Strategy {
+		/**
+		 * Restore the input if the previous call consumed it. Not timed.
+		 */
+		void prepare();
+
+		/**
+		 * Compute the maximum. Timed.
+		 */
+		int run() throws Exception;
+
+		/**
+		 * Release any threads the strategy owns.
+		 */
+		void close();
+	}
+
+	private final int[] data;
+	private final int threads;
+	private final int maxListSize;
+
+	private ReductionBenchmark(int[] data, int threads, int maxListSize) {
+		this.data = data;
+		this.threads = threads;
+		this.maxListSize = maxListSize;
+	}
+
+	public static void main(String[] args) throws Exception {
+		long maxSize = args.length > 0 ? (long) Double.parseDouble(args[0]) : 100000000L;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int measureMs = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		int maxListSize = (int) Double.parseDouble(System.getProperty("bench.maxListSize", "1e6"));
+
+		AllocationCounter allocations = new AllocationCounter();
+		if (!allocations.isSupported())
+			System.out.println("warning: no eden pool found, allocation rates will read 0");
+
+		System.out.printf("%-16s %10s %7s %14s %12s %12s %14s%n",
+				"strategy", "size", "threads", "ops/s", "Melem/s", "alloc MB/s", "alloc B/op");
+		Random rand = new Random(433);
+		for (long size = 1000; size <= maxSize; size *= 10) {
+			int[] data = new int[(int) size];
+			for (int i = 0; i < data.length; i++)
+				data[i] = rand.nextInt();
+			int expected = Arrays.stream(data).max().getAsInt();
+
+			for (int threads = 1; threads <= maxThreads; threads = nextThreadCount(threads, maxThreads)) {
+				ReductionBenchmark bench = new ReductionBenchmark(data, threads, maxListSize);
+				String[] names = { "locked-list", "striped-array", "pooled-array", "fork-join", "parallel-stream" };
+				for (String name : names) {
+					Strategy strategy = bench.strategy(name);
+					if (strategy == null) {
+						System.out.printf("%-16s %10d %7d %14s%n", name, size, threads, "skipped");
+						continue;
+					}
+					try {
+						bench.measure(name, strategy, expected, allocations, measureMs);
+					} finally {
+						strategy.close();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Double the thread count, but always finish on <code>maxThreads</code> itself.
+	 */
+	private static int nextThreadCount(int threads, int maxThreads) {
+		if (threads == maxThreads)
+			return maxThreads + 1;
+		return Math.min(threads * 2, maxThreads);
+	}
+
+	/**
+	 * @return The named strategy, or null if it should be skipped for this input
+	 */
+	private Strategy strategy(String name) {
+		if (name.equals("locked-list")) {
+			if (data.length > maxListSize)
+				return null;
+			final ParallelMaximizer maximizer = new ParallelMaximizer(threads);
+			final LinkedList<Integer> list = new LinkedList<Integer>();
+			return new Strategy() {
+				public void prepare() {
+					// max drains the list, so refill it before every call
+					list.clear();
+					for (int number : data)
+						list.add(number);
+				}
+
+				public int run() throws InterruptedException {
+					return maximizer.max(list);
+				}
+
+				public void close() {
+				}
+			};
+		} else if (name.equals("striped-array")) {
+			final ParallelMaximizer maximizer = new ParallelMaximizer(threads);
+			return new Strategy() {
+				public void prepare() {
+				}
+
+				public int run() throws InterruptedException {
+					return maximizer.max(data);
+				}
+
+				public void close() {
+				}
+			};
+		} else if (name.equals("pooled-array")) {
+			final MaximizerPool pool = new MaximizerPool(threads);
+			final ParallelMaximizer maximizer = new ParallelMaximizer(threads, pool);
+			return new Strategy() {
+				public void prepare() {
+				}
+
+				public int run() throws InterruptedException {
+					return maximizer.max(data);
+				}
+
+				public void close() {
+					pool.shutdown();
+				}
+			};
+		} else if (name.equals("fork-join")) {
+			final ParallelReducer reducer = new ParallelReducer(threads, ParallelReducer.DEFAULT_THRESHOLD);
+			return new Strategy() {
+				public void prepare() {
+				}
+
+				public int run() {
+					return reducer.max(data);
+				}
+
+				public void close() {
+					reducer.shutdown();
+				}
+			};
+		} else {
+			// a parallel stream started from inside a pool runs on that pool
+			final ForkJoinPool pool = new ForkJoinPool(threads);
+			final Callable<Integer> max = new Callable<Integer>() {
+				public Integer call() {
+					return Arrays.stream(data).parallel().max().getAsInt();
+				}
+			};
+			return new Strategy() {
+				public void prepare() {
+				}
+
+				public int run() throws InterruptedException, ExecutionException {
+					return pool.submit(max).get();
+				}
+
+				public void close() {
+					pool.shutdown();
+				}
+			};
+		}
+	}
+
+	/**
+	 * Warm up, then call <code>strategy</code> for at least
+	 * <code>measureMs</code> and print one result line.
+	 */
+	private void measure(String name, Strategy strategy, int expected, AllocationCounter allocations, int measureMs)
+			throws Exception {
+		long deadline = System.nanoTime() + WARMUP_MS * 1000000L;
+		while (System.nanoTime() < deadline) {
+			strategy.prepare();
+			check(name, expected, strategy.run());
+		}
+
+		long operations = 0;
+		long elapsedNs = 0;
+		long allocatedBytes = 0;
+		while (elapsedNs < measureMs * 1000000L || operations < MIN_OPERATIONS) {
+			strategy.prepare();
+			long bytesBefore = allocations.allocatedBytes();
+			long start = System.nanoTime();
+			int result = strategy.run();
+			elapsedNs += System.nanoTime() - start;
+			allocatedBytes += allocations.allocatedBytes() - bytesBefore;
+			check(name, expected, result);
+			operations++;
+		}
+
+		double seconds = elapsedNs / 1e9;
+		allocatedBytes = Math.max(0, allocatedBytes); // a late GC notification can overshoot
+		System.out.printf("%-16s %10d %7d %14.1f %12.1f %12.1f %14.0f%n",
+				name, data.length, threads,
+				operations / seconds,
+				operations * (double) data.length / seconds / 1e6,
+				allocatedBytes / seconds / (1 << 20),
+				allocatedBytes / (double) operations);
+	}
+
+	private static void check(String name, int expected, int actual) {
+		if (expected != actual)
+			throw new IllegalStateException(name + " returned " + actual + " instead of " + expected);
+	}
+
+}
@@ -1,12 +1,27 @@
 package cmsc433.p0.tests;
 
 import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.junit.Test;
 
+import cmsc433.p0.IntMaxKernel;
 import cmsc433.p0.ParallelMaximizer;
+import cmsc433.p0.IntSources;
+import cmsc433.p0.MaximizerPool;
+import cmsc433.p0.ParallelReducer;
+import cmsc433.p0.StreamingMaximizer;
 
 public class PublicTest {
 
@@ -42,4 +57,237 @@ public class PublicTest {
 		assertEquals("The serial max doesn't match the parallel max", serialMax, parallelMax);
 	}
 
+	@Test
+	public void compareMaxArray() {
+		int size = 100003; // size of array, deliberately not a multiple of threadCount
+		int[] array = new int[size];
+		IntBuffer direct = ByteBuffer.allocateDirect(size * 4).asIntBuffer();
+		Random rand = new Random();
+		int serialMax = Integer.MIN_VALUE;
+		// populate array and buffer with the same random elements
+		for (int i=0; i<size; i++) {
+			array[i] = rand.nextInt();
+			direct.put(i, array[i]);
+			serialMax = Math.max(serialMax, array[i]);
+		}
+
+		try {
+			assertEquals("The serial max doesn't match the striped array max", serialMax, maximizer.max(array));
+			assertEquals("The serial max doesn't match the striped buffer max", serialMax, maximizer.max(direct));
+			assertEquals("An empty array should give Integer.MIN_VALUE", Integer.MIN_VALUE, maximizer.max(new int[0]));
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			fail("The test failed because the max procedure was interrupted unexpectedly.");
+		}
+	}
+
+	@Test
+	public void compareReductions() {
+		int size = 200000; // size of array
+		int k = 5; // top-k size
+		int[] array = new int[size];
+		Random rand = new Random();
+		int serialMin = Integer.MAX_VALUE;
+		int serialArgmax = -1;
+		long serialSum = 0;
+		long serialEven = 0;
+		// populate array with random elements
+		for (int i=0; i<size; i++) {
+			array[i] = rand.nextInt();
+			serialMin = Math.min(serialMin, array[i]);
+			if (serialArgmax == -1 || array[i] > array[serialArgmax])
+				serialArgmax = i;
+			serialSum += array[i];
+			if (array[i] % 2 == 0)
+				serialEven++;
+		}
+		int[] sorted = array.clone();
+		Arrays.sort(sorted);
+
+		// small threshold so the input is split many times
+		ParallelReducer reducer = new ParallelReducer(threadCount, 1000);
+		try {
+			assertEquals("The serial min doesn't match the parallel min", serialMin, reducer.min(array));
+			assertEquals("The serial max doesn't match the parallel max", sorted[size - 1], reducer.max(array));
+			assertEquals("The serial sum doesn't match the parallel sum", serialSum, reducer.sum(array));
+			assertEquals("The serial count doesn't match the parallel count", serialEven, reducer.count(array, x -> x % 2 == 0));
+			assertEquals("The serial argmax doesn't match the parallel argmax", serialArgmax, reducer.argmax(array));
+			assertEquals("The xor reduction doesn't match", Arrays.stream(array).reduce(0, (a, b) -> a ^ b), reducer.reduce(array, 0, (a, b) -> a ^ b));
+			int[] topK = reducer.topK(array, k);
+			assertEquals("Top-k returned the wrong number of elements", k, topK.length);
+			for (int i=0; i<k; i++)
+				assertEquals("Top-k element " + i + " is wrong", sorted[size - 1 - i], topK[i]);
+			assertEquals("Argmax of an empty array should be -1", -1, reducer.argmax(new int[0]));
+		} finally {
+			reducer.shutdown();
+		}
+	}
+
+	@Test
+	public void compareMaxBatched() {
+		int size = 50000; // size of list, not a multiple of the batch size
+		int batchSize = 1000; // elements claimed per batch
+		LinkedList<Integer> list = new LinkedList<Integer>();
+		ConcurrentLinkedQueue<int[]> chunks = new ConcurrentLinkedQueue<int[]>();
+		int[] chunk = new int[batchSize];
+		Random rand = new Random();
+		int serialMax = Integer.MIN_VALUE;
+		// populate list and chunk queue with the same random elements
+		for (int i=0; i<size; i++) {
+			int next = rand.nextInt();
+			list.add(next);
+			chunk[i % batchSize] = next;
+			if (i % batchSize == batchSize - 1 || i == size - 1) {
+				chunks.add(Arrays.copyOf(chunk, i % batchSize + 1));
+			}
+			serialMax = Math.max(serialMax, next);
+		}
+
+		try {
+			assertEquals("The serial max doesn't match the batched max", serialMax, maximizer.maxBatched(list, batchSize + 7));
+			assertTrue("The batched max should drain the list", list.isEmpty());
+			assertEquals("The serial max doesn't match the chunked max", serialMax, maximizer.maxOfChunks(chunks));
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			fail("The test failed because the max procedure was interrupted unexpectedly.");
+		}
+	}
+
+	@Test
+	public void compareStreamingMax() {
+		int size = 100000; // number of streamed elements
+		int k = 4; // top-k size
+		int[] array = new int[size];
+		ByteBuffer bytes = ByteBuffer.allocate(size * 4).order(ByteOrder.LITTLE_ENDIAN);
+		Random rand = new Random();
+		// populate array and byte stream with the same random elements
+		for (int i=0; i<size; i++) {
+			array[i] = rand.nextInt();
+			bytes.putInt(array[i]);
+		}
+		int[] sorted = array.clone();
+		Arrays.sort(sorted);
+		int[] expectedTopK = new int[k];
+		for (int i=0; i<k; i++)
+			expectedTopK[i] = sorted[size - 1 - i];
+
+		try {
+			StreamingMaximizer fromIterator = new StreamingMaximizer(threadCount, k, IntSources.of(Arrays.stream(array).iterator()), 100);
+			fromIterator.start();
+			assertEquals("The serial max doesn't match the streamed iterator max", sorted[size - 1], fromIterator.awaitCompletion());
+			assertEquals("Every element should be counted once", size, fromIterator.count());
+			assertArrayEquals("The streamed top-k is wrong", expectedTopK, fromIterator.currentTopK());
+
+			StreamingMaximizer fromStream = new StreamingMaximizer(threadCount, k, IntSources.of(new ByteArrayInputStream(bytes.array()), ByteOrder.LITTLE_ENDIAN));
+			fromStream.start();
+			assertEquals("The serial max doesn't match the streamed input max", sorted[size - 1], fromStream.awaitCompletion());
+			assertArrayEquals("The streamed top-k is wrong", expectedTopK, fromStream.currentTopK());
+
+			// an unbounded queue: the answer must be readable while workers are still waiting
+			LinkedBlockingQueue<Integer> queue = new LinkedBlockingQueue<Integer>();
+			StreamingMaximizer fromQueue = new StreamingMaximizer(threadCount, k, IntSources.of(queue));
+			fromQueue.start();
+			for (int i=0; i<1000; i++)
+				queue.put(array[i]);
+			while (fromQueue.count() < 1000)
+				Thread.sleep(1);
+			int expected = Integer.MIN_VALUE;
+			for (int i=0; i<1000; i++)
+				expected = Math.max(expected, array[i]);
+			assertEquals("The serial max doesn't match the live queue max", expected, fromQueue.currentMax());
+			fromQueue.stop();
+			assertEquals("Stopping should keep the last answer", expected, fromQueue.awaitCompletion());
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			fail("The test failed because the streaming max was interrupted unexpectedly.");
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail("The test failed because the stream could not be read: " + e.getMessage());
+		}
+	}
+
+	@Test
+	public void compareMappedMax() throws IOException {
+		int size = 100003; // number of values in each file
+		ByteBuffer ints = ByteBuffer.allocate(size * 4).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer longs = ByteBuffer.allocate(size * 8).order(ByteOrder.LITTLE_ENDIAN);
+		Random rand = new Random();
+		int serialIntMax = Integer.MIN_VALUE;
+		long serialLongMax = Long.MIN_VALUE;
+		// populate both files with random values
+		for (int i=0; i<size; i++) {
+			int nextInt = rand.nextInt();
+			long nextLong = rand.nextLong();
+			ints.putInt(nextInt);
+			longs.putLong(nextLong);
+			serialIntMax = Math.max(serialIntMax, nextInt);
+			serialLongMax = Math.max(serialLongMax, nextLong);
+		}
+
+		Path intFile = Files.createTempFile("p0-int32", ".bin");
+		Path longFile = Files.createTempFile("p0-int64", ".bin");
+		try {
+			Files.write(intFile, ints.array());
+			Files.write(longFile, longs.array());
+			assertEquals("The serial max doesn't match the mapped int32 max", serialIntMax, maximizer.maxInt32(intFile));
+			assertEquals("The serial max doesn't match the mapped int64 max", serialLongMax, maximizer.maxInt64(longFile));
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			fail("The test failed because the max procedure was interrupted unexpectedly.");
+		} finally {
+			Files.delete(intFile);
+			Files.delete(longFile);
+		}
+	}
+
+	@Test
+	public void compareMaxPooled() {
+		int cutoff = 1000; // inputs below this are scanned on the caller's thread
+		MaximizerPool pool = new MaximizerPool(threadCount, cutoff);
+		ParallelMaximizer pooled = new ParallelMaximizer(threadCount, pool);
+		Random rand = new Random();
+		try {
+			// many calls on both sides of the cutoff, all on the same pool threads
+			for (int size : new int[] { 0, 1, cutoff - 1, cutoff, 20000 }) {
+				for (int round=0; round<20; round++) {
+					int[] array = new int[size];
+					LinkedList<Integer> list = new LinkedList<Integer>();
+					int serialMax = Integer.MIN_VALUE;
+					for (int i=0; i<size; i++) {
+						array[i] = rand.nextInt();
+						list.add(array[i]);
+						serialMax = Math.max(serialMax, array[i]);
+					}
+					assertEquals("The serial max doesn't match the pooled array max", serialMax, pooled.max(array));
+					assertEquals("The serial max doesn't match the pooled list max", serialMax, pooled.max(list));
+					assertEquals("The serial max doesn't match the submitted max", serialMax, pool.submit(array).await());
+				}
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			fail("The test failed because the max procedure was interrupted unexpectedly.");
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void compareKernels() {
+		Random rand = new Random(433);
+		assertEquals(Integer.MIN_VALUE, IntMaxKernel.SCALAR.max(new int[4], 2, 2)); // empty range
+		assertEquals(Integer.MIN_VALUE, IntMaxKernel.INSTANCE.max(new int[4], 2, 2));
+		// lengths around and past the vector width, at unaligned offsets, so both the lanes and the tail are checked
+		for (int length = 1; length <= 200; length++) {
+			int[] array = new int[length + 3];
+			for (int i = 0; i < array.length; i++)
+				array[i] = rand.nextInt();
+			int serialMax = Integer.MIN_VALUE;
+			for (int i = 3; i < array.length; i++)
+				serialMax = Math.max(serialMax, array[i]);
+			assertEquals(serialMax, IntMaxKernel.SCALAR.max(array, 3, array.length));
+			assertEquals(IntMaxKernel.INSTANCE + " kernel, length " + length, serialMax,
+					IntMaxKernel.INSTANCE.max(array, 3, array.length));
+		}
+	}
+
 }
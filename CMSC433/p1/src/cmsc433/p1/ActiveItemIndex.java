@@ -0,0 +1,72 @@
+package cmsc433.p1;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The items currently up for bidding, packed at the front of an array, with a
+ * map from listing ID to each item's slot. Adding, removing and looking up an
+ * item are all constant time: a removed item's slot is filled with the last
+ * item. Copying the whole index is a single array copy. Both the array and
+ * the map only ever hold the live items, at most <code>serverCapacity</code>.
+ * 
+ * The order of the items is not stable. Not thread-safe; the server guards it
+ * with its catalog lock.
+ */
+public class ActiveItemIndex
+{
+	private Item[] slots = new Item[16];
+	private int size = 0;
+	private HashMap<Integer, Integer> slotOf = new HashMap<Integer, Integer>(); // listing ID -> index in slots
+
+	public int size()
+	{
+		return this.size;
+	}
+
+	public boolean contains(int listingID)
+	{
+		return this.slotOf.containsKey(listingID);
+	}
+
+	/**
+	 * Add an item that is not in the index yet.
+	 */
+	public void add(Item item)
+	{
+		if (this.size == this.slots.length)
+			this.slots = Arrays.copyOf(this.slots, this.slots.length * 2);
+		this.slots[this.size] = item;
+		this.slotOf.put(item.listingID(), this.size);
+		this.size++;
+	}
+
+	/**
+	 * Remove an item by moving the last item into its slot.
+	 * @return True if the item was in the index
+	 */
+	public boolean remove(Item item)
+	{
+		Integer slot = this.slotOf.remove(item.listingID());
+		if (slot == null)
+			return false;
+
+		this.size--;
+		Item last = this.slots[this.size];
+		this.slots[this.size] = null;
+		if (slot != this.size)
+		{
+			this.slots[slot] = last;
+			this.slotOf.put(last.listingID(), slot);
+		}
+		return true;
+	}
+
+	/**
+	 * @return A copy of the items in the index
+	 */
+	public Item[] toArray()
+	{
+		return Arrays.copyOf(this.slots, this.size);
+	}
+}
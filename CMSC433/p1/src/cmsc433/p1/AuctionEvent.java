@@ -0,0 +1,71 @@
+package cmsc433.p1;
+
+/**
+ * Something that happened to an item, as seen by one subscriber. Delivered
+ * to an <code>AuctionListener</code> registered with
+ * <code>AuctionServer.subscribe</code>.
+ */
+public final class AuctionEvent
+{
+	public enum Type
+	{
+		OUTBID, // someone other than the subscriber placed a new highest bid
+		CLOSED, // bidding closed without any bid
+		WON, // bidding closed and the subscriber holds the winning bid
+		LOST, // bidding closed and someone else holds the winning bid
+		CANCELLED // the highest bid was cancelled because its bidder was blacklisted; the item has no bid now
+	}
+
+	private final Type type;
+	private final int listingID;
+	private final int price;
+	private final String leader;
+
+	public AuctionEvent(Type type, int listingID, int price, String leader)
+	{
+		this.type = type;
+		this.listingID = listingID;
+		this.price = price;
+		this.leader = leader;
+	}
+
+	public Type type()
+	{
+		return this.type;
+	}
+
+	public int listingID()
+	{
+		return this.listingID;
+	}
+
+	/**
+	 * @return The highest bid when the event happened, or 0 for <code>CLOSED</code> and <code>CANCELLED</code>
+	 */
+	public int price()
+	{
+		return this.price;
+	}
+
+	/**
+	 * @return The highest bidder when the event happened, or null for <code>CLOSED</code> and <code>CANCELLED</code>
+	 */
+	public String leader()
+	{
+		return this.leader;
+	}
+
+	/**
+	 * @return True if no more events will follow for this listing
+	 */
+	public boolean isFinal()
+	{
+		return this.type == Type.CLOSED || this.type == Type.WON || this.type == Type.LOST;
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.type + " " + this.listingID + " " + this.price + " " + this.leader;
+	}
+}
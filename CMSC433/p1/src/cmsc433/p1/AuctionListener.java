@@ -0,0 +1,13 @@
+package cmsc433.p1;
+
+/**
+ * Receives the events of the items it is subscribed to, in place of polling
+ * <code>itemPrice</code> and <code>checkBidStatus</code>.
+ * 
+ * Events are delivered on the server's dispatcher thread, so a listener must
+ * return quickly and must not block; it may call back into the server.
+ */
+public interface AuctionListener
+{
+	void auctionEvent(AuctionEvent event);
+}
@@ -6,11 +6,23 @@ package cmsc433.p1;
  */
 
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 
 
@@ -83,46 +95,96 @@ public class AuctionServer
 
 	/* Statistic variables and server constants: End code you should likely leave alone. */
 
+	/**
+	 * Results of <code>checkBidStatus</code>
+	 */
+	public static final int SUCCESS = 1, OPEN = 2, FAILURE = 3;
 
 
 	/**
 	 * Some variables we think will be of potential use as you implement the server...
 	 */
 
-	// List of items currently up for bidding (will eventually remove things that have expired).
-	private List<Item> itemsUpForBidding = new ArrayList<Item>();
+	// Index of items currently up for bidding (items are removed as soon as they expire).  Adding,
+	// removing and finding an item are constant time.
+	private ActiveItemIndex itemsUpForBidding = new ActiveItemIndex();
+
+	// Immutable copy of itemsUpForBidding, republished under catalogLock after every change so that
+	// readers never lock.
+	private volatile CatalogSnapshot catalog = new CatalogSnapshot(0, new Item[0]);
 
 
 	// The last value used as a listing ID.  We'll assume the first thing added gets a listing ID of 0.
 	private int lastListingID = -1; 
 
-	// List of item IDs and actual items.  This is a running list with everything ever added to the auction.
-	private HashMap<Integer, Item> itemsAndIDs = new HashMap<Integer, Item>();
+	// List of item IDs and actual items, indexed directly by listing ID.  Holds every item added to the
+	// auction until it settles and moves to the archive.
+	private ListingTable<Item> itemsAndIDs = new ListingTable<Item>();
+
+	// Settled items (sold, or closed without a bid) moved out of itemsAndIDs and bids.  An item is added here
+	// before it is removed from the live maps, so a lookup that misses the maps always finds it here.
+	private ItemArchive archive = new ItemArchive();
 
-	// List of itemIDs and the highest bid for each item.  This is a running list with everything ever bid upon.
-	private HashMap<Integer, Integer> highestBids = new HashMap<Integer, Integer>();
+	// Settled items still in the live maps, waiting for the next compaction
+	private ConcurrentLinkedQueue<Item> settled = new ConcurrentLinkedQueue<Item>();
+	private AtomicInteger settledCount = new AtomicInteger();
+	private AtomicBoolean compactionRequested = new AtomicBoolean();
 
-	// List of itemIDs and the person who made the highest bid for each item.   This is a running list with everything ever bid upon.
-	private HashMap<Integer, String> highestBidders = new HashMap<Integer, String>(); 
+	// The bidding state of each item, indexed by listing ID: highest bid, highest bidder and whether it is
+	// open, closed or sold.  Each record is immutable and replaced in its slot with compare-and-set, so bids
+	// never lock.  Like itemsAndIDs, holds every item until it is archived.
+	private ListingTable<BidRecord> bids = new ListingTable<BidRecord>();
 	
 	// List of Bidders who have been permanently banned because they failed to pay the amount they promised for an item. 
-	private HashSet<String> blacklist = new HashSet<String>();
+	private Set<String> blacklist = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 	
 	// List of sellers and how many items they have currently up for bidding.
 	private HashMap<String, Integer> itemsPerSeller = new HashMap<String, Integer>();
 
-	// List of buyers and how many items on which they are currently bidding.
-	private HashMap<String, Integer> itemsPerBuyer = new HashMap<String, Integer>();
+	// List of buyers and how many items on which they are currently bidding (leading).  Each buyer has
+	// their own counter, so quota checks by different buyers never contend.  A blacklisted buyer's
+	// counter is pinned at BANNED so that no reservation can succeed.
+	private ConcurrentHashMap<String, AtomicInteger> itemsPerBuyer = new ConcurrentHashMap<String, AtomicInteger>();
+
+	// For each buyer, the listing IDs of the unsold items they lead (open, or closed and awaiting payment), so
+	// that blacklisting a buyer only visits those.  May briefly hold an item the buyer no longer leads, but
+	// never misses one they do lead for longer than it takes their bid to check the blacklist.
+	private ConcurrentHashMap<String, Set<Integer>> leadingBids = new ConcurrentHashMap<String, Set<Integer>>();
 
 	// List of itemIDs that have been paid for. This is a running list including everything ever paid for.
-	private HashSet<Integer> itemsSold = new HashSet<Integer> ();
+	private ListingBits itemsSold = new ListingBits();
+
+	// Listeners subscribed to each listing ID.  The list is removed when the item closes; a subscriber that
+	// arrives after that notices the closed record itself.
+	private ListingTable<CopyOnWriteArrayList<Subscription>> subscriptions = new ListingTable<CopyOnWriteArrayList<Subscription>>();
 
 	// Object used for instance synchronization if you need to do it at some point 
 	// since as a good practice we don't use synchronized (this) if we are doing internal
 	// synchronization.
 	//
+	// Guards the statistic variables (soldItemsCount, revenue, uncollectedRevenue) only.
 	private Object instanceLock = new Object(); 
 
+	// Guards itemsUpForBidding, lastListingID, itemsPerSeller and publishing catalog, so the capacity and per-seller
+	// checks are atomic with listing an item.  Never held while bidding.
+	private Object catalogLock = new Object();
+
+	// Value of a blacklisted buyer's itemsPerBuyer counter; far above maxBidCount.
+	private static final int BANNED = Integer.MAX_VALUE / 2;
+
+	public static final int compactionBatch = 64; // Settled items that trigger a background compaction
+
+	// Where changes are logged once openJournal was called, or null
+	private volatile Journal journal;
+
+	// When this server is one shard of a PartitionedAuctionServer: every shard, indexed by listing ID modulo
+	// their number.  Shard i hands out the listing IDs i, i + N, i + 2N...  Null for a standalone server.
+	private AuctionServer[] partition;
+	private int listingStride = 1; // Difference between consecutive listing IDs of this server
+
+	// Latencies, lock times and reject counts, shared by every shard of a PartitionedAuctionServer
+	private ServerMetrics metrics = new ServerMetrics(this);
+
 
 
 
@@ -140,6 +202,31 @@ public class AuctionServer
 	 */
 
 
+	/**
+	 * Create shard <code>shard</code> of a partitioned deployment.  The shard has its own items, catalog,
+	 * seller counts and statistics, but shares everything about buyers (quotas, blacklist and leads) with
+	 * <code>buyers</code>, so that <code>maxBidCount</code> and blacklisting hold across all shards.
+	 * @param shard Index of this shard in <code>partition</code>
+	 * @param partition Every shard, filled in by the caller
+	 * @param buyers Server whose buyer state all shards use
+	 */
+	AuctionServer(int shard, AuctionServer[] partition, AuctionServer buyers)
+	{
+		this.partition = partition;
+		this.listingStride = partition.length;
+		this.lastListingID = shard - partition.length;
+		//This shard only ever holds every listingStride-th ID, so index its tables by ID / listingStride
+		this.itemsAndIDs = new ListingTable<Item>(listingStride, shard);
+		this.bids = new ListingTable<BidRecord>(listingStride, shard);
+		this.subscriptions = new ListingTable<CopyOnWriteArrayList<Subscription>>(listingStride, shard);
+		this.itemsSold = new ListingBits(listingStride, shard);
+		this.archive = new ItemArchive(listingStride, shard);
+		this.blacklist = buyers.blacklist;
+		this.itemsPerBuyer = buyers.itemsPerBuyer;
+		this.leadingBids = buyers.leadingBids;
+		this.metrics = buyers.metrics;
+	}
+
 	/**
 	 * Attempt to submit an <code>Item</code> to the auction
 	 * @param sellerName Name of the <code>Seller</code>
@@ -157,37 +244,61 @@ public class AuctionServer
 		//   If the seller has too many items up for bidding, don't let them add this one.
 		//   Don't forget to increment the number of things the seller has currently listed.
 
-		synchronized(instanceLock) //Lock on the server itself to maintain constance lastListingID
+		long startNs = System.nanoTime();
+		int listingID;
+		synchronized(catalogLock) //Lock on the catalog to keep capacity, seller counts and lastListingID consistent
 		{
-			boolean sellerExists = itemsPerSeller.containsKey(sellerName);
-
-			//Check if listing this item breaks server or seller capacity
-			if (itemsUpForBidding.size() >= serverCapacity) //Server is full, can't list any more items
-				return -1;
-			else if (sellerExists && itemsPerSeller.get(sellerName) >= maxSellerItems) { //Seller has too many items up for bid
-				System.out.println(sellerName + ": can't post any more auctions, have posted maxSellerItems");
-				return -1;
-			}
+			long lockedNs = metrics.lockAcquired(ServerMetrics.Lock.CATALOG, startNs);
+			listingID = listItem(sellerName, itemName, lowestBiddingPrice, biddingDurationMs);
+			metrics.lockReleased(ServerMetrics.Lock.CATALOG, lockedNs);
+		}
+		metrics.record(ServerMetrics.Operation.SUBMIT_ITEM, startNs);
+		return listingID;
+	}
 
-			//Item can be added, create it and add it to the appropriate data structures
-			lastListingID += 1; //Increment this when a new object is added
+	/**
+	 * List an <code>Item</code> if neither the server nor the seller is full.  Caller must hold catalogLock.
+	 * @return The new listing ID, or -1
+	 */
+	private int listItem(String sellerName, String itemName, int lowestBiddingPrice, int biddingDurationMs)
+	{
+		boolean sellerExists = itemsPerSeller.containsKey(sellerName);
 
-			Item toAdd = new Item(sellerName, itemName, lastListingID, lowestBiddingPrice, biddingDurationMs);
-			itemsUpForBidding.add(toAdd); //Item is available to bid
-			itemsAndIDs.put(lastListingID, toAdd); //Item has an ID
-			//Check if this is a new seller, and increment their item total appropriately
-			if (sellerExists)
-			{
-				int sellerItems = itemsPerSeller.get(sellerName);
-				itemsPerSeller.put(sellerName, sellerItems + 1);
-			}
-			else
-			{
-				itemsPerSeller.put(sellerName, 1);
-			}
+		//Check if listing this item breaks server or seller capacity
+		if (itemsUpForBidding.size() >= serverCapacity) { //Server is full, can't list any more items
+			metrics.countRejection(ServerMetrics.ItemRejection.SERVER_CAPACITY);
+			return -1;
+		}
+		else if (sellerExists && itemsPerSeller.get(sellerName) >= maxSellerItems) { //Seller has too many items up for bid
+			metrics.countRejection(ServerMetrics.ItemRejection.SELLER_LIMIT);
+			AuditLog.getInstance().log(AuditLog.Level.INFO, AuditLog.ServerMessage.SELLER_LIMIT, sellerName, -1, maxSellerItems);
+			return -1;
+		}
 
-			return lastListingID;
+		//Item can be added, create it and add it to the appropriate data structures
+		lastListingID += listingStride; //Increment this when a new object is added
+
+		Item toAdd = new Item(sellerName, itemName, lastListingID, lowestBiddingPrice, biddingDurationMs);
+		Journal journal = this.journal;
+		if (journal != null) //Logged before anyone can bid on it, so its bids always come after it in the journal
+			journal.logItem(toAdd);
+		bids.set(lastListingID, BidRecord.unbid()); //Item starts open with no bids
+		itemsAndIDs.set(lastListingID, toAdd); //Item has an ID (published after its bid state, before the catalog)
+		itemsUpForBidding.add(toAdd); //Item is available to bid
+		publishCatalog();
+		ExpiryScheduler.getInstance().schedule(this, toAdd); //Item closes itself when its time is up
+		//Check if this is a new seller, and increment their item total appropriately
+		if (sellerExists)
+		{
+			int sellerItems = itemsPerSeller.get(sellerName);
+			itemsPerSeller.put(sellerName, sellerItems + 1);
 		}
+		else
+		{
+			itemsPerSeller.put(sellerName, 1);
+		}
+
+		return lastListingID;
 	}
 
 	/**
@@ -200,15 +311,28 @@ public class AuctionServer
 		// Some reminders:
 		//    Don't forget that whatever you return is now outside of your control.
 
-		//Return a copy, not the actual list
-		List<Item> temp = new ArrayList<Item>();
-		synchronized(instanceLock) //Lock on server so list of items up for bidding is unchanged
-		{
-			for (int i = 0; i < itemsUpForBidding.size(); i++)
-				temp.add(itemsUpForBidding.get(i));
-		}
+		//Return a copy, not the actual list.  The snapshot never changes, so no lock is needed
+		long startNs = System.nanoTime();
+		List<Item> items = new ArrayList<Item>(catalog.items());
+		metrics.record(ServerMetrics.Operation.GET_ITEMS, startNs);
+		return items;
+	}
+
+	/**
+	 * Get the current catalog without copying it
+	 * @return An immutable snapshot of the <code>Items</code> active in the auction
+	 */
+	public CatalogSnapshot getCatalog()
+	{
+		return catalog;
+	}
 
-		return temp;
+	/**
+	 * Replace the catalog snapshot after itemsUpForBidding changed.  Caller must hold catalogLock.
+	 */
+	private void publishCatalog()
+	{
+		catalog = new CatalogSnapshot(catalog.version() + 1, itemsUpForBidding.toArray());
 	}
 
 
@@ -233,79 +357,200 @@ public class AuctionServer
 		//   Decrement the former winning bidder's count
 		//   Put your bid in place
 
-		synchronized(instanceLock) //Lock on the server while the bid is being submitted
+		long startNs = System.nanoTime();
+		BidResult result;
+		if (blacklist.contains(bidderName)) //Check if bidder has been blacklisted
+			result = BidResult.BLACKLISTED;
+		else
+			result = placeBid(bidderName, listingID, biddingAmount);
+		report(bidderName, listingID, biddingAmount, result);
+		metrics.record(ServerMetrics.Operation.SUBMIT_BID, startNs);
+		return result.accepted();
+	}
+
+	/**
+	 * Submit several bids for one <code>Bidder</code> at once.  The blacklist is checked once for the whole
+	 * batch instead of once per bid; otherwise each bid is validated and applied exactly as by
+	 * <code>submitBid</code>, in list order, taking a slot of the bidder's quota only when it is accepted.
+	 * Bids are independent: a rejected bid does not undo the ones before it.
+	 * @param bidderName Name of the <code>Bidder</code>
+	 * @param requests Bids to place
+	 * @return The outcome of each bid, in the same order as <code>requests</code>
+	 */
+	public BidResult[] submitBids(String bidderName, List<BidRequest> requests)
+	{
+		long startNs = System.nanoTime();
+		BidResult[] results = new BidResult[requests.size()];
+		if (blacklist.contains(bidderName))
 		{
-			boolean bidderExists = itemsPerBuyer.containsKey(bidderName);
-			String highestBidder = ""; //If this item has been bid on, get name of highest bidder
-			if (highestBidders.containsKey(listingID))
-				highestBidder = highestBidders.get(listingID);
-
-			//See if bid is invalid based on item's existence or auction rules
-			Item itemInQuestion = itemsAndIDs.get(listingID);
-			if (!itemsUpForBidding.contains(itemInQuestion)) //Check if item exists and can be bid upon
-			{
-				System.out.println(bidderName + ": Item is not available for bidding");
-				return false;
-			}
-			if (bidderExists && itemsPerBuyer.get(bidderName) >= maxBidCount) //Check if bidder has too many outstanding bids
-			{
-				System.out.println(bidderName + ": Bidder has too many outstanding bids");
-				return false;
-			}
-			if (blacklist.contains(bidderName)) //Check if bidder has been blacklisted
+			Arrays.fill(results, BidResult.BLACKLISTED);
+			metrics.countBids(BidResult.BLACKLISTED, results.length);
+			AuditLog.getInstance().log(AuditLog.Level.INFO, BidResult.BLACKLISTED, bidderName, -1, results.length);
+			metrics.record(ServerMetrics.Operation.SUBMIT_BIDS, startNs);
+			return results;
+		}
+
+		//Quota slots are taken per bid, as by submitBid: reserving them for the whole batch up front would
+		//turn away this bidder's concurrent single bids with slots the batch ends up not using
+		int i = 0;
+		for (BidRequest request : requests)
+		{
+			BidResult result = placeBid(bidderName, request.listingID(), request.biddingAmount());
+			results[i++] = report(bidderName, request.listingID(), request.biddingAmount(), result);
+		}
+		metrics.record(ServerMetrics.Operation.SUBMIT_BIDS, startNs);
+		return results;
+	}
+
+	/**
+	 * Validate a bid against the item's current record and swap it in.
+	 * @return Outcome of the bid
+	 */
+	private BidResult placeBid(String bidderName, int listingID, int biddingAmount)
+	{
+		Item potentialBid = itemsAndIDs.get(listingID);
+		if (potentialBid == null || !potentialBid.biddingOpen()) //Check if item exists and can be bid upon
+			return BidResult.NOT_AVAILABLE;
+
+		boolean reserved = false; //Whether this bid holds a slot of the bidder's quota
+		while (true) //Optimistic: check the current record, then swap in ours only if nobody changed it meanwhile
+		{
+			BidRecord current = bids.get(listingID);
+			BidResult failure = null;
+			if (current == null || current.state() != BidRecord.State.OPEN) //Settled and archived, or closed
+				failure = BidResult.NOT_AVAILABLE;
+			else if (bidderName.equals(current.bidder())) //If this bidder already has the highest bid, bid is invalid
+				failure = BidResult.ALREADY_HIGHEST;
+			else if (current.hasBid() && biddingAmount <= current.amount())
+				failure = BidResult.BELOW_CURRENT;
+			else if (!current.hasBid() && biddingAmount < potentialBid.lowestBiddingPrice())
+				failure = BidResult.BELOW_MINIMUM;
+			else if (!reserved && !(reserved = reserveBid(bidderName))) //Check if bidder has too many outstanding bids
+				failure = blacklist.contains(bidderName) ? BidResult.BLACKLISTED : BidResult.TOO_MANY_BIDS;
+
+			if (failure != null)
 			{
-				System.out.println(bidderName + ": Bidder has been blacklisted");
-				return false;
+				if (reserved)
+					releaseBid(bidderName);
+				return failure;
 			}
 
-			//Get Item from list of items to be bid on
-			//We know it's available to be bid on, so grab it from itemsAndIDs
-			Item potentialBid = itemsAndIDs.get(listingID);
-			int bidPrice = -1;
-			if (itemUnbid(listingID))
-				bidPrice = potentialBid.lowestBiddingPrice();
-			else
-				bidPrice = highestBids.get(listingID);
-
-			if (potentialBid != null) //The item exists in the list of items to be bid on
+			BidRecord placed = current.withBid(biddingAmount, bidderName);
+			if (bids.compareAndSet(listingID, current, placed))
 			{
-				if (highestBidder.equals(bidderName)) //If this bidder already has the highest bid, bid is invalid
-				{
-					System.out.println(bidderName + ": Bidder already has highest bid");
-					return false;
-				}
-				else if (!itemUnbid(listingID) && biddingAmount <= bidPrice)
+				log(Journal.BID, listingID, placed);
+				leadsOf(bidderName).add(listingID);
+
+				//Decrement former highest bidder's bid count
+				if (current.hasBid())
 				{
-					System.out.println(bidderName + ": Subsequent bids must be greater than current bid price");
+					releaseBid(current.bidder());
+					dropLead(current.bidder(), listingID);
 				}
-				else if (itemUnbid(listingID) && biddingAmount < itemsAndIDs.get(listingID).lowestBiddingPrice())
+
+				//If the bidder was blacklisted while this bid was in flight, the blacklist cleanup may
+				//already have passed this item, so cancel the bid here instead
+				if (blacklist.contains(bidderName))
 				{
-					System.out.println(bidderName + ": Initial bid must be greater than or equal to lowestBiddingPrice");
+					cancelBid(listingID, bidderName);
+					return BidResult.BLACKLISTED;
 				}
-				else //At this point bid should be valid
-				{
-					System.out.println(bidderName + ": Bid successfully submitted at this point");
-					//Decrement former highest bidder's bid count
-					String formerBidder = highestBidders.get(listingID);
-					if (formerBidder != null) //Have to check if this actually exists
-						itemsPerBuyer.put(formerBidder, itemsPerBuyer.get(formerBidder) - 1);
-
-					//Put bid in place (update itemsPerBuyer, highestBids, and highestBidders)
-					if (bidderExists) //Update itemsPerBuyer number
-						itemsPerBuyer.put(bidderName, itemsPerBuyer.get(bidderName) + 1);
-					else
-						itemsPerBuyer.put(bidderName, 1);
+				publishBid(listingID, biddingAmount, bidderName);
+				return BidResult.ACCEPTED;
+			}
+			//Lost a race with another bid or a close: retry against the new record
+		}
+	}
 
-					highestBids.put(listingID, biddingAmount);
-					highestBidders.put(listingID, bidderName);
+	/**
+	 * Count and log the outcome of a bid.
+	 * @return <code>result</code>
+	 */
+	private BidResult report(String bidderName, int listingID, int biddingAmount, BidResult result)
+	{
+		metrics.countBids(result, 1);
+		AuditLog.getInstance().log(AuditLog.Level.INFO, result, bidderName, listingID, biddingAmount);
+		return result;
+	}
 
-					return true;
-				}
-			}
+	/**
+	 * Take one slot of a bidder's quota if they have one left.
+	 * @return False if the bidder already leads <code>maxBidCount</code> items or is blacklisted
+	 */
+	private boolean reserveBid(String bidderName)
+	{
+		AtomicInteger count = buyerCount(bidderName);
+		while (true)
+		{
+			int current = count.get();
+			if (current >= maxBidCount)
+				return false;
+			if (count.compareAndSet(current, current + 1))
+				return true;
 		}
+	}
 
-		//Should never reach this point
-		return false;
+	/**
+	 * @return The counter of items a bidder leads, created at 0 on first use
+	 */
+	private AtomicInteger buyerCount(String bidderName)
+	{
+		AtomicInteger count = itemsPerBuyer.get(bidderName);
+		if (count == null)
+		{
+			AtomicInteger fresh = new AtomicInteger();
+			count = itemsPerBuyer.putIfAbsent(bidderName, fresh);
+			if (count == null)
+				count = fresh;
+		}
+		return count;
+	}
+
+	/**
+	 * Give back one slot of a bidder's quota.  A blacklisted bidder's counter stays pinned at BANNED.
+	 */
+	private void releaseBid(String bidderName)
+	{
+		AtomicInteger count = itemsPerBuyer.get(bidderName);
+		while (true)
+		{
+			int current = count.get();
+			if (current >= BANNED || current == 0)
+				return;
+			if (count.compareAndSet(current, current - 1))
+				return;
+		}
+	}
+
+	/**
+	 * @return The listings a bidder leads, created empty on first use
+	 */
+	private Set<Integer> leadsOf(String bidderName)
+	{
+		Set<Integer> leads = leadingBids.get(bidderName);
+		if (leads == null)
+		{
+			Set<Integer> fresh = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+			leads = leadingBids.putIfAbsent(bidderName, fresh);
+			if (leads == null)
+				leads = fresh;
+		}
+		return leads;
+	}
+
+	/**
+	 * Remove a listing from a bidder's leads once they stopped leading it.  If they took the lead back in
+	 * the meantime, their own bid may have re-added it before this removal, so put it back.
+	 */
+	private void dropLead(String bidderName, int listingID)
+	{
+		Set<Integer> leads = leadingBids.get(bidderName);
+		if (leads == null)
+			return;
+		leads.remove(listingID);
+		BidRecord current = bids.get(listingID);
+		if (current != null && current.state() != BidRecord.State.SOLD && bidderName.equals(current.bidder()))
+			leads.add(listingID);
 	}
 
 	/**
@@ -318,7 +563,17 @@ public class AuctionServer
 	 */
 	public int checkBidStatus(String bidderName, int listingID)
 	{
-		final int SUCCESS = 1, OPEN = 2, FAILURE = 3;
+		long startNs = System.nanoTime();
+		int status = bidStatus(bidderName, listingID);
+		metrics.record(ServerMetrics.Operation.CHECK_BID_STATUS, startNs);
+		return status;
+	}
+
+	/**
+	 * <code>checkBidStatus</code> without the timing, so that <code>payForItem</code> is not counted twice.
+	 */
+	private int bidStatus(String bidderName, int listingID)
+	{
 		// TODO: IMPLEMENT CODE HERE
 		// Some reminders:
 		//   If the bidding is closed, clean up for that item.
@@ -327,61 +582,94 @@ public class AuctionServer
 		//     Update the number of open bids for this seller
 		//     If the item was sold to someone, update the uncollectedRevenue field appropriately
 
-		synchronized(instanceLock) //Lock to make sure bid status doesn't change when checking it
-		{
-			if (!itemsAndIDs.containsKey(listingID)) { //The given ID doesn't match an actual item in the auction server
-				System.out.println("checkBidStatus FAILURE, ID does not match an actual item");
-				return FAILURE;
-			}
-
-			Item checkItem = itemsAndIDs.get(listingID);
-			String highestBidder; //Keep reference to who the highest bidder is currently; if no bids, null
-			if (itemUnbid(listingID))
-				highestBidder = null;
-			else
-				highestBidder = highestBidders.get(listingID);
+		Item checkItem = itemsAndIDs.get(listingID);
+		if (checkItem == null && !archive.contains(listingID)) { //The given ID doesn't match an actual item in the auction server
+			AuditLog.getInstance().log(AuditLog.Level.DEBUG, AuditLog.ServerMessage.STATUS_NO_ITEM, bidderName, listingID, 0);
+			return FAILURE;
+		}
 
-			synchronized(checkItem) //Lock on item to make sure no other threads can modify it
-			{
-				if (checkItem.biddingOpen()) { //If the item is still up for bid, return OPEN and do nothing else
-					System.out.println("checkBidStatus returning OPEN");
-					return OPEN;
-				}
-			}
+		if (checkItem != null && checkItem.biddingOpen()) { //If the item is still up for bid, return OPEN and do nothing else
+			AuditLog.getInstance().log(AuditLog.Level.DEBUG, AuditLog.ServerMessage.STATUS_OPEN, bidderName, listingID, 0);
+			return OPEN;
+		}
 
-			//At this point bidding is closed, so clean up for the item
-			//Find whoever sold this item and decrease their active auctions by 1
-			String sellerName = itemsAndIDs.get(listingID).seller(); //Update the number of open bids the seller has
-			itemsPerSeller.put(sellerName, itemsPerSeller.get(sellerName) - 1); //Update number of active items per seller
+		//At this point bidding is closed.  The expiry scheduler normally has already cleaned up
+		//for the item; if it is running late, clean up here instead (exactly once either way)
+		if (checkItem != null)
+			closeItem(checkItem);
 
-			//This item has already been bid on
-			//Check if the item has already been removed from bidding, if so no side effects
-			if (highestBidder != null) //This item has been bid on (if already removed from
-			{
-				itemsPerBuyer.put(highestBidder, itemsPerBuyer.get(highestBidder) - 1);
+		String highestBidder = recordOf(listingID).bidder(); //If no (remaining) bids, null
+		if (highestBidder == null) {
+			//Reach this point if the item has not been bid on (or its bids were cancelled), should fail by default
+			AuditLog.getInstance().log(AuditLog.Level.DEBUG, AuditLog.ServerMessage.STATUS_NEVER_BID, bidderName, listingID, 0);
+			return FAILURE;
+		}
+		if (bidderName.equals(highestBidder)) { //This bidder made the highest bid
+			AuditLog.getInstance().log(AuditLog.Level.DEBUG, AuditLog.ServerMessage.STATUS_WON, bidderName, listingID, 0);
+			return SUCCESS;
+		}
+		AuditLog.getInstance().log(AuditLog.Level.DEBUG, AuditLog.ServerMessage.STATUS_LOST, bidderName, listingID, 0);
+		return FAILURE;
+	}
 
-				//Only do this is the item has not yet been removed from the active bidding list
-				if (itemsUpForBidding.contains(checkItem))
-				{
-					uncollectedRevenue += highestBids.get(listingID);
-					itemsUpForBidding.remove(checkItem); //Be sure to actually remove it
-				}
+	/**
+	 * Called by the <code>ExpiryScheduler</code> as soon as bidding on
+	 * <code>item</code> closes.
+	 */
+	void expire(Item item)
+	{
+		metrics.recordExpiryLag(System.nanoTime() - item.biddingEndNs());
+		closeItem(item);
+	}
 
-				if (bidderName.equals(highestBidder)) { //This bidder made the highest bid
-					System.out.println("checkBidStatus SUCCESS, this bidder made the winning bid");
-					return SUCCESS;
-				}
-				else {
-					System.out.println("checkBidStatus FAILURE, this bidder did not make the winning bid");
-					return FAILURE;
-				}
-			}
+	/**
+	 * Settle an item whose bidding time is up: remove it from the items up for
+	 * bidding, release its seller's and winning bidder's quota, and count its
+	 * winning bid as uncollected revenue. Only the thread whose compare-and-set
+	 * moves the record from OPEN to CLOSED does this, so it happens exactly once.
+	 */
+	private void closeItem(Item item)
+	{
+		BidRecord current, closed;
+		do
+		{
+			current = bids.get(item.listingID());
+			if (current == null || current.state() != BidRecord.State.OPEN)
+				return; //Already settled, possibly archived
+			closed = current.withState(BidRecord.State.CLOSED);
+		} while (!bids.compareAndSet(item.listingID(), current, closed));
+		log(Journal.CLOSE, item.listingID(), closed);
+
+		CopyOnWriteArrayList<Subscription> listeners = subscriptions.remove(item.listingID());
+		if (listeners != null)
+		{
+			for (Subscription subscription : listeners)
+				publishClose(subscription, item.listingID(), current);
+		}
 
+		long requestedNs = System.nanoTime();
+		synchronized(catalogLock)
+		{
+			long lockedNs = metrics.lockAcquired(ServerMetrics.Lock.CATALOG, requestedNs);
+			itemsUpForBidding.remove(item);
+			publishCatalog();
+			itemsPerSeller.put(item.seller(), itemsPerSeller.get(item.seller()) - 1); //Update number of active items per seller
+			metrics.lockReleased(ServerMetrics.Lock.CATALOG, lockedNs);
 		}
 
-		//Reach this point if the item has not been bid on, should fail by default
-		System.out.println("checkBidStatus FAILURE, this item was never bid on");
-		return FAILURE;
+		if (current.hasBid()) //This item has been bid on
+		{
+			releaseBid(current.bidder());
+			requestedNs = System.nanoTime();
+			synchronized(instanceLock)
+			{
+				long lockedNs = metrics.lockAcquired(ServerMetrics.Lock.INSTANCE, requestedNs);
+				uncollectedRevenue += current.amount();
+				metrics.lockReleased(ServerMetrics.Lock.INSTANCE, lockedNs);
+			}
+		}
+		else
+			markSettled(item); //Nothing can happen to an unbid closed item any more
 	}
 
 	/**
@@ -397,14 +685,22 @@ public class AuctionServer
 		// highest bid, even if the buyer paid more than necessary for the item or if the buyer
 		// is subsequently blacklisted
 
-		synchronized(instanceLock) //Lock on server so that highest bid value is unchanged
+		long startNs = System.nanoTime();
+		try
 		{
-			if (!itemsAndIDs.containsKey(listingID)) //Check if item exists
-				return -1;
-			else if (!highestBids.containsKey(listingID)) //Check if item has a bid placed on it yet
-				return itemsAndIDs.get(listingID).lowestBiddingPrice();
+			Item item = itemsAndIDs.get(listingID);
+			if (item == null) //Check if item exists, possibly settled and archived
+				return archive.price(listingID);
+
+			BidRecord current = recordOf(listingID); //A single read of an immutable record, so no lock is needed
+			if (!current.hasBid()) //Check if item has a bid placed on it yet
+				return item.lowestBiddingPrice();
 			else
-				return highestBids.get(listingID);
+				return current.amount();
+		}
+		finally
+		{
+			metrics.record(ServerMetrics.Operation.ITEM_PRICE, startNs);
 		}
 	}
 
@@ -416,12 +712,10 @@ public class AuctionServer
 	public boolean itemUnbid(int listingID)
 	{
 		// TODO: IMPLEMENT CODE HERE
-		//Maybe doesn't need to be synchronized?
-		synchronized(instanceLock) //Lock on server to get stable list of items
-		{
-			//If an item is in this list it has been bid on, and so is not unbid
-			return !highestBids.containsKey(listingID);
-		}
+		long startNs = System.nanoTime();
+		BidRecord current = recordOf(listingID);
+		metrics.record(ServerMetrics.Operation.ITEM_UNBID, startNs);
+		return current == null || !current.hasBid();
 	}
 
 	/**
@@ -440,50 +734,499 @@ public class AuctionServer
 		// - If the amount tendered is insufficient, cancel all active bids held by the buyer, 
 		//   add the buyer to the blacklist, and throw an InsufficientFundsException
 
-		synchronized(instanceLock) //Lock to pay for item without other threads interfering
+		long startNs = System.nanoTime();
+		try
 		{
-			if (!itemsAndIDs.containsKey(listingID)) //Item has to actually exist to be paid for
+			Item item = itemsAndIDs.get(listingID);
+			if (item == null) //Item has to actually exist to be paid for
+				return null;
+
+			if (bidStatus(bidderName, listingID) != 1) //bidder did not win auction, or bidding is still open
+				return null;
+
+			BidRecord won = bids.get(listingID);
+			//The winning bid could have been cancelled since checkBidStatus, or the item already paid for (and archived)
+			if (won == null || won.state() != BidRecord.State.CLOSED || !bidderName.equals(won.bidder()))
 				return null;
 
-			if (checkBidStatus(bidderName, listingID) == 1) //Bidder is the winner of the item
+			if (amount >= won.amount()) //Sufficient funds to pay for the item
 			{
-				if (amount >= highestBids.get(listingID)) //Sufficient funds to pay for the item
+				BidRecord sold = won.withPayment(amount);
+				if (!bids.compareAndSet(listingID, won, sold))
+					return null; //Paid for or cancelled concurrently
+				log(Journal.PAY, listingID, sold);
+
+				long requestedNs = System.nanoTime();
+				synchronized(instanceLock)
 				{
-					uncollectedRevenue -= highestBids.get(listingID); //uncollectedRevenue only accounts for highest bid
+					long lockedNs = metrics.lockAcquired(ServerMetrics.Lock.INSTANCE, requestedNs);
+					uncollectedRevenue -= won.amount(); //uncollectedRevenue only accounts for highest bid
 					revenue += amount; //revenue collects the total amount submitted by the buyer
 					soldItemsCount += 1; //1 more item is sold
-					itemsSold.add(listingID); //Item goes in the itemsSold list
+					metrics.lockReleased(ServerMetrics.Lock.INSTANCE, lockedNs);
+				}
+				itemsSold.add(listingID); //Item goes in the itemsSold list
+				dropLead(bidderName, listingID);
+				markSettled(item);
 
-					return itemsAndIDs.get(listingID).name();
+				return item.name();
+			}
+
+			//Insufficient funds to pay for item, cancel outstanding bids and blacklist buyer
+			AuditLog.getInstance().log(AuditLog.Level.WARN, AuditLog.ServerMessage.BLACKLISTED, bidderName, listingID, amount);
+			blacklistBidder(bidderName);
+			throw new InsufficientFundsException();
+		}
+		finally
+		{
+			metrics.record(ServerMetrics.Operation.PAY_FOR_ITEM, startNs);
+		}
+	}
+
+	/**
+	 * Have <code>listener</code> told about new bids on an <code>Item</code> and about how its bidding ends,
+	 * instead of polling <code>itemPrice</code> and <code>checkBidStatus</code>.  Events are delivered
+	 * asynchronously and in the order they happened, except that two bids racing each other may be reported
+	 * in either order; the higher price is the current one.  <code>OUTBID</code> and <code>CANCELLED</code>
+	 * events may be dropped when listeners fall far behind.  The last event is always exactly one of
+	 * <code>CLOSED</code>, <code>WON</code> or <code>LOST</code>, which is never dropped, and nothing is
+	 * delivered after it.  A winning bid cancelled after the item closed is not reported.
+	 * @param subscriberName Name of the <code>Bidder</code> the events are for; their own bids are not reported
+	 * @param listingID Unique ID of the <code>Item</code>
+	 * @param listener Receives the events
+	 * @return False if no <code>Item</code> with the given listingID exists
+	 */
+	public boolean subscribe(String subscriberName, int listingID, AuctionListener listener)
+	{
+		if (bids.get(listingID) == null)
+		{
+			BidRecord archived = archive.record(listingID);
+			if (archived == null)
+				return false;
+			publishClose(new Subscription(subscriberName, listener), listingID, archived);
+			return true;
+		}
+
+		Subscription subscription = new Subscription(subscriberName, listener);
+		CopyOnWriteArrayList<Subscription> listeners = subscriptions.get(listingID);
+		while (listeners == null)
+		{
+			CopyOnWriteArrayList<Subscription> fresh = new CopyOnWriteArrayList<Subscription>();
+			listeners = subscriptions.compareAndSet(listingID, null, fresh) ? fresh : subscriptions.get(listingID);
+		}
+		listeners.add(subscription);
+
+		//If the item closed before the subscription was in place, nobody else will tell this listener
+		BidRecord current = recordOf(listingID);
+		if (current.state() != BidRecord.State.OPEN)
+		{
+			subscriptions.remove(listingID);
+			publishClose(subscription, listingID, current);
+		}
+		return true;
+	}
+
+	/**
+	 * Stop delivering events to a listener registered with <code>subscribe</code>.  No event is queued for
+	 * it once this returns, though one queued just before may still arrive.
+	 * @return False if the listener was not subscribed to this <code>Item</code>
+	 */
+	public boolean unsubscribe(int listingID, AuctionListener listener)
+	{
+		CopyOnWriteArrayList<Subscription> listeners = subscriptions.get(listingID);
+		if (listeners == null)
+			return false;
+		for (Subscription subscription : listeners)
+		{
+			if (subscription.listener == listener)
+			{
+				subscription.end();
+				return listeners.remove(subscription);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tell every subscriber of an <code>Item</code> except the new leader that they have been outbid.
+	 */
+	private void publishBid(int listingID, int biddingAmount, String bidderName)
+	{
+		CopyOnWriteArrayList<Subscription> listeners = subscriptions.get(listingID);
+		if (listeners == null)
+			return;
+		AuctionEvent event = null;
+		for (Subscription subscription : listeners)
+		{
+			if (subscription.subscriberName.equals(bidderName))
+				continue;
+			if (event == null)
+				event = new AuctionEvent(AuctionEvent.Type.OUTBID, listingID, biddingAmount, bidderName);
+			subscription.send(event);
+		}
+	}
+
+	/**
+	 * Tell every subscriber of an open <code>Item</code> that its highest bid was cancelled.
+	 */
+	private void publishCancel(int listingID)
+	{
+		CopyOnWriteArrayList<Subscription> listeners = subscriptions.get(listingID);
+		if (listeners == null)
+			return;
+		AuctionEvent event = new AuctionEvent(AuctionEvent.Type.CANCELLED, listingID, 0, null);
+		for (Subscription subscription : listeners)
+			subscription.send(event);
+	}
+
+	/**
+	 * Send a subscriber the outcome of an <code>Item</code>, once.
+	 * @param closed Record of the item once bidding stopped
+	 */
+	private void publishClose(Subscription subscription, int listingID, BidRecord closed)
+	{
+		AuctionEvent event;
+		if (!closed.hasBid())
+			event = new AuctionEvent(AuctionEvent.Type.CLOSED, listingID, 0, null);
+		else if (closed.bidder().equals(subscription.subscriberName))
+			event = new AuctionEvent(AuctionEvent.Type.WON, listingID, closed.amount(), closed.bidder());
+		else
+			event = new AuctionEvent(AuctionEvent.Type.LOST, listingID, closed.amount(), closed.bidder());
+		subscription.send(event);
+	}
+
+	/**
+	 * A listener registered for one <code>Item</code>.  Events are queued for it under its own lock, so a
+	 * bid that lost the race with the item's close cannot slip its event in after the final one.
+	 */
+	private static final class Subscription
+	{
+		final String subscriberName;
+		final AuctionListener listener;
+		private boolean finished = false; // set once the final event is queued or the listener unsubscribed
+
+		Subscription(String subscriberName, AuctionListener listener)
+		{
+			this.subscriberName = subscriberName;
+			this.listener = listener;
+		}
+
+		/**
+		 * Queue an event for the listener, unless the subscription has already ended.
+		 */
+		synchronized void send(AuctionEvent event)
+		{
+			if (finished)
+				return;
+			finished = event.isFinal();
+			EventDispatcher.getInstance().dispatch(listener, event);
+		}
+
+		synchronized void end()
+		{
+			finished = true;
+		}
+	}
+
+	/**
+	 * Permanently ban a bidder and cancel every bid they lead on an unsold
+	 * item, as if it was never made.
+	 */
+	private void blacklistBidder(String bidderName)
+	{
+		//From here on no bid by this bidder can reserve a slot, and any bid already past
+		//that point sees the blacklist after its swap and cancels itself
+		blacklist.add(bidderName);
+		buyerCount(bidderName).set(BANNED);
+		Journal journal = this.journal;
+		if (journal != null)
+			journal.logBlacklist(bidderName);
+
+		//Reset the bid for every unsold item this bidder leads.  Bids that land after this
+		//snapshot of the index cancel themselves, see above
+		Set<Integer> leads = leadingBids.get(bidderName);
+		if (leads != null)
+		{
+			for (int ID : leads)
+				ownerOf(ID).cancelBid(ID, bidderName); //Leads are shared between shards
+		}
+	}
+
+	/**
+	 * @return The server holding the <code>Item</code> with this listing ID: this one unless partitioned
+	 */
+	private AuctionServer ownerOf(int listingID)
+	{
+		return partition == null ? this : partition[listingID % partition.length];
+	}
+
+	/**
+	 * Remove a bidder's lead on an item that has not been paid for, as if the
+	 * bid was never made.  A cancelled winning bid on a closed item stops
+	 * counting as uncollected revenue.
+	 */
+	private void cancelBid(int listingID, String bidderName)
+	{
+		while (true)
+		{
+			BidRecord current = bids.get(listingID);
+			if (current == null || current.state() == BidRecord.State.SOLD || !bidderName.equals(current.bidder()))
+				return; //Missing, archived (so settled) or not led by this bidder
+			BidRecord cancelled = current.withoutBid();
+			if (bids.compareAndSet(listingID, current, cancelled))
+			{
+				log(Journal.CANCEL, listingID, cancelled);
+				dropLead(bidderName, listingID);
+				if (current.state() == BidRecord.State.OPEN)
+					publishCancel(listingID);
+				if (current.state() == BidRecord.State.CLOSED) //Already counted as uncollected when it closed
+				{
+					long requestedNs = System.nanoTime();
+					synchronized(instanceLock)
+					{
+						long lockedNs = metrics.lockAcquired(ServerMetrics.Lock.INSTANCE, requestedNs);
+						uncollectedRevenue -= current.amount();
+						metrics.lockReleased(ServerMetrics.Lock.INSTANCE, lockedNs);
+					}
+					Item item = itemsAndIDs.get(listingID);
+					if (item != null)
+						markSettled(item); //Closed and now unbid, so it can never change again
 				}
-				else //Insufficient funds to pay for item, cancel outstanding bids and blacklist seller
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Move every settled <code>Item</code> (sold, or closed without a bid) from the live maps into the
+	 * compact archive.  This normally happens in the background whenever <code>compactionBatch</code> items
+	 * have settled; calling it directly is only needed to compact right away.
+	 * @return Number of items archived by this call
+	 */
+	public int compact()
+	{
+		int archived = 0;
+		Item item;
+		while ((item = settled.poll()) != null)
+		{
+			settledCount.decrementAndGet();
+			BidRecord record = bids.get(item.listingID());
+			if (record == null)
+				continue; //Archived already
+			archive.add(item, record);
+			itemsAndIDs.remove(item.listingID());
+			bids.remove(item.listingID());
+			archived++;
+		}
+		return archived;
+	}
+
+	/**
+	 * @return Number of settled <code>Items</code> moved to the archive so far
+	 */
+	public int archivedItemsCount()
+	{
+		return archive.size();
+	}
+
+	/**
+	 * @return Latencies, lock wait and hold times, reject counts and gauges of this server
+	 */
+	public ServerMetrics metrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Show <code>metrics()</code> through JMX, as the MXBean
+	 * <code>cmsc433.p1:type=AuctionServer,name=</code><code>name</code>.
+	 * @throws JMException If a server is already registered under that name
+	 */
+	public void registerMetrics(String name) throws JMException
+	{
+		ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+				new ObjectName("cmsc433.p1:type=AuctionServer,name=" + ObjectName.quote(name)));
+	}
+
+	/**
+	 * @return Number of bidders on the blacklist
+	 */
+	int blacklistedCount()
+	{
+		return blacklist.size();
+	}
+
+	/**
+	 * Called by the <code>Compactor</code> for a requested compaction.
+	 */
+	void compactInBackground()
+	{
+		compactionRequested.set(false);
+		compact();
+		if (settledCount.get() >= compactionBatch) //More settled while compacting
+			requestCompaction();
+	}
+
+	/**
+	 * Queue an item whose record can no longer change for archiving.
+	 */
+	private void markSettled(Item item)
+	{
+		settled.add(item);
+		if (settledCount.incrementAndGet() >= compactionBatch)
+			requestCompaction();
+	}
+
+	private void requestCompaction()
+	{
+		if (compactionRequested.compareAndSet(false, true))
+			Compactor.getInstance().request(this);
+	}
+
+	/**
+	 * @return The current record of an <code>Item</code>, live or archived, or null if it does not exist
+	 */
+	private BidRecord recordOf(int listingID)
+	{
+		BidRecord record = bids.get(listingID);
+		return record != null ? record : archive.record(listingID);
+	}
+
+	/**
+	 * Restore the state saved in a journal directory and log every later change there, so that the auction
+	 * survives a restart.  Call this once, at startup, before the server is used.  Auctions whose time ran out
+	 * while the server was down close right away.
+	 * @param directory Holds the journal and snapshots; created if missing
+	 * @param fsync Whether to force every group commit to disk; without it a crash of the machine (not just
+	 * the process) may lose recent changes
+	 * @throws IOException If the journal cannot be read or a new one cannot be started
+	 */
+	public void openJournal(File directory, boolean fsync) throws IOException
+	{
+		synchronized(catalogLock)
+		{
+			if (journal != null || itemsAndIDs.limit() != 0)
+				throw new IllegalStateException("openJournal must be called once, on a server with no items");
+
+			journal = Journal.open(directory, fsync, metrics, new Journal.Replayer() {
+				public void item(Item item)
+				{
+					if (itemsAndIDs.get(item.listingID()) == null)
+					{
+						bids.set(item.listingID(), BidRecord.unbid());
+						itemsAndIDs.set(item.listingID(), item);
+					}
+				}
+
+				public void record(int listingID, BidRecord record)
+				{
+					//Keep the latest record whatever order the journal holds them in
+					BidRecord current = bids.get(listingID);
+					if (current != null && record.version() > current.version())
+						bids.set(listingID, record);
+				}
+
+				public void blacklist(String bidderName)
 				{
-					System.out.println("[AUCTION SERVER]: BUYER HAS BEEN BLACKLISTED");
-					//Server gets no profit and the item is not considered sold
-					//Cancel all outstanding bids, blacklist buyer
-					itemsPerBuyer.put(bidderName, 0);
 					blacklist.add(bidderName);
+				}
+			});
 
-					//Reset highestBids and highestBidders only for currently active items
-					for (int ID : itemsAndIDs.keySet()) { //Pick from all items
-						//If the current bidder is the highestBidder for this item, remove it from
-						//highestBidders and highestBids (as if it was never bid on)
-						if (!itemsSold.contains(ID)) { //If item has not been sold yet, remove it from highestBidders and highestBids
-							if (highestBidders.get(ID).equals(bidderName)) {
-								highestBidders.remove(ID);
-								highestBids.remove(ID);
-							}
+			//Everything else is derived from the items' records
+			for (String bidderName : blacklist)
+				buyerCount(bidderName).set(BANNED);
+			for (int ID = 0; ID < itemsAndIDs.limit(); ID++)
+			{
+				Item item = itemsAndIDs.get(ID);
+				if (item == null)
+					continue;
+				lastListingID = ID;
+				BidRecord record = bids.get(ID);
+				switch (record.state())
+				{
+				case OPEN:
+					itemsUpForBidding.add(item);
+					Integer sellerItems = itemsPerSeller.get(item.seller());
+					itemsPerSeller.put(item.seller(), sellerItems == null ? 1 : sellerItems + 1);
+					if (record.hasBid())
+					{
+						buyerCount(record.bidder()).incrementAndGet();
+						leadsOf(record.bidder()).add(ID);
+					}
+					ExpiryScheduler.getInstance().schedule(this, item);
+					break;
+				case CLOSED:
+					if (record.hasBid())
+					{
+						synchronized(instanceLock)
+						{
+							uncollectedRevenue += record.amount();
 						}
+						leadsOf(record.bidder()).add(ID);
+					}
+					else
+						markSettled(item);
+					break;
+				case SOLD:
+					synchronized(instanceLock)
+					{
+						revenue += record.paid();
+						soldItemsCount += 1;
 					}
-					while (highestBidders.values().remove(bidderName)); //Should keep looping while values contains bidderName
-					throw new InsufficientFundsException();
+					itemsSold.add(item.listingID());
+					markSettled(item);
+					break;
 				}
 			}
-			else //bidder did not win auction, or bidding is still open
-			{
-				return null;
-			}
+			publishCatalog();
+		}
+	}
+
+	/**
+	 * Wait until every change made so far is in the journal.
+	 * @throws IOException If the journal could not be written
+	 */
+	public void syncJournal() throws IOException, InterruptedException
+	{
+		Journal journal = this.journal;
+		if (journal != null)
+			journal.sync();
+	}
+
+	/**
+	 * Snapshot the whole server to the journal directory and drop the journal it replaces, so that recovery
+	 * does not have to replay the full history.  The server keeps serving requests meanwhile; listing and
+	 * closing items only wait while the switch to a new journal file is queued.
+	 * @throws IOException If the snapshot could not be written; the previous one stays valid
+	 */
+	public void checkpoint() throws IOException, InterruptedException
+	{
+		Journal journal = this.journal;
+		if (journal != null)
+			journal.checkpoint(catalogLock, itemsAndIDs, bids, archive, blacklist);
+	}
+
+	/**
+	 * Write out the journal and stop logging to it.
+	 */
+	public void closeJournal() throws IOException, InterruptedException
+	{
+		Journal journal = this.journal;
+		if (journal != null)
+		{
+			this.journal = null;
+			journal.close();
 		}
 	}
 
+	/**
+	 * Log a new record of an <code>Item</code>, if journaling is on.
+	 */
+	private void log(byte type, int listingID, BidRecord record)
+	{
+		Journal journal = this.journal;
+		if (journal != null)
+			journal.logRecord(type, listingID, record);
+	}
+
 }
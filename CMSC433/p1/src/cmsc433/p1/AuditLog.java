@@ -0,0 +1,276 @@
+package cmsc433.p1;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Structured audit log of what the server did, written by a background
+ * thread so that no server thread ever waits for console or file I/O.
+ *
+ * An event is a level, a <code>Message</code> constant, a subject (the
+ * bidder or seller concerned), a listing ID and one number. Server threads
+ * copy those into a slot of a preallocated ring buffer, claimed with a
+ * compare-and-set, and never build a string: formatting happens on the
+ * writer thread. Below the configured level <code>log</code> returns after
+ * one volatile read, without allocating. If the writer falls a whole ring
+ * behind, new events are dropped and counted rather than waiting for it.
+ * <p>
+ * Output is either plain text, one <code>subject: message</code> line per
+ * event, or JSON lines with every field.
+ */
+public class AuditLog
+{
+	public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+	public enum Format { TEXT, JSON }
+
+	/**
+	 * What an event reports. Implemented by enums, so passing one allocates nothing.
+	 */
+	public interface Message
+	{
+		String name();
+
+		String message();
+	}
+
+	/**
+	 * Server events other than bid outcomes, which are <code>BidResults</code>.
+	 */
+	public enum ServerMessage implements Message
+	{
+		SELLER_LIMIT("can't post any more auctions, have posted maxSellerItems"),
+		STATUS_NO_ITEM("checkBidStatus FAILURE, ID does not match an actual item"),
+		STATUS_OPEN("checkBidStatus returning OPEN"),
+		STATUS_NEVER_BID("checkBidStatus FAILURE, this item was never bid on"),
+		STATUS_WON("checkBidStatus SUCCESS, this bidder made the winning bid"),
+		STATUS_LOST("checkBidStatus FAILURE, this bidder did not make the winning bid"),
+		BLACKLISTED("[AUCTION SERVER]: BUYER HAS BEEN BLACKLISTED"),
+		BACKGROUND_FAILURE("[AUCTION SERVER]: background task failed"),
+		JOURNAL_FAILURE("[AUCTION SERVER]: JOURNAL FAILED, CHANGES ARE NO LONGER DURABLE");
+
+		private final String message;
+
+		private ServerMessage(String message)
+		{
+			this.message = message;
+		}
+
+		public String message()
+		{
+			return this.message;
+		}
+	}
+
+	public static final int CAPACITY = 1 << 14; // events buffered for the writer; a power of two
+	private static final long IDLE_PARK_NS = 200000L; // writer's nap when the ring is empty
+
+	private static AuditLog instance = new AuditLog(System.out);
+
+	public static AuditLog getInstance() { return instance; }
+
+	private volatile int threshold = Level.INFO.ordinal();
+	private volatile Format format = Format.TEXT;
+	private volatile Writer out;
+
+	// the ring: slot i holds the event with sequence number i modulo CAPACITY
+	private final AtomicLongArray published = new AtomicLongArray(CAPACITY); // sequence + 1 once the slot is filled
+	private final long[] timeMs = new long[CAPACITY]; // wall-clock time of the event
+	private final byte[] levels = new byte[CAPACITY];
+	private final Message[] messages = new Message[CAPACITY];
+	private final String[] subjects = new String[CAPACITY];
+	private final int[] listingIDs = new int[CAPACITY];
+	private final int[] values = new int[CAPACITY];
+
+	private final AtomicLong claimed = new AtomicLong(); // next sequence to hand to a producer
+	private final AtomicLong written = new AtomicLong(); // next sequence the writer will take
+	private final AtomicLong flushed = new AtomicLong(); // events before this sequence reached the output
+	private final AtomicLong dropped = new AtomicLong();
+
+	private AuditLog(OutputStream output)
+	{
+		setOutput(output);
+		Thread thread = new Thread(new Runnable() {
+			public void run()
+			{
+				writeForever();
+			}
+		}, "auction-audit");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Only log events at <code>level</code> or above; <code>OFF</code> logs nothing.
+	 */
+	public void setLevel(Level level)
+	{
+		this.threshold = level.ordinal();
+	}
+
+	public void setFormat(Format format)
+	{
+		this.format = format;
+	}
+
+	/**
+	 * Send events written from now on to <code>output</code>.
+	 */
+	public void setOutput(OutputStream output)
+	{
+		Writer previous = this.out;
+		this.out = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 1 << 16);
+		if (previous != null)
+			flushQuietly(previous);
+	}
+
+	public boolean isEnabled(Level level)
+	{
+		return level.ordinal() >= threshold;
+	}
+
+	/**
+	 * @return Number of events dropped so far because the writer was a full ring behind
+	 */
+	public long droppedEvents()
+	{
+		return dropped.get();
+	}
+
+	/**
+	 * Record an event, unless its level is disabled. Never blocks.
+	 * @param subject Bidder or seller concerned, or null
+	 * @param listingID Listing concerned, or -1
+	 * @param value Amount, count or other number the event is about
+	 */
+	public void log(Level level, Message message, String subject, int listingID, int value)
+	{
+		if (level.ordinal() < threshold)
+			return;
+
+		long sequence;
+		do
+		{
+			sequence = claimed.get();
+			if (sequence - written.get() >= CAPACITY)
+			{
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!claimed.compareAndSet(sequence, sequence + 1));
+
+		int slot = (int) sequence & (CAPACITY - 1);
+		timeMs[slot] = System.currentTimeMillis();
+		levels[slot] = (byte) level.ordinal();
+		messages[slot] = message;
+		subjects[slot] = subject;
+		listingIDs[slot] = listingID;
+		values[slot] = value;
+		published.lazySet(slot, sequence + 1); // orders the plain writes above before the writer sees the slot
+	}
+
+	/**
+	 * Wait until every event logged before this call has been written out.
+	 */
+	public void flush() throws InterruptedException
+	{
+		long target = claimed.get();
+		while (flushed.get() < target)
+		{
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			LockSupport.parkNanos(IDLE_PARK_NS);
+		}
+	}
+
+	private void writeForever()
+	{
+		StringBuilder line = new StringBuilder(256);
+		while (true)
+		{
+			long sequence = written.get();
+			int slot = (int) sequence & (CAPACITY - 1);
+			if (published.get(slot) != sequence + 1)
+			{
+				// nothing new (or the next producer is still filling its slot): push out what we have
+				flushQuietly(out);
+				flushed.lazySet(sequence);
+				LockSupport.parkNanos(IDLE_PARK_NS);
+				continue;
+			}
+
+			line.setLength(0);
+			format(line, slot);
+			subjects[slot] = null; // do not keep names alive until the slot is reused
+			messages[slot] = null;
+			written.lazySet(sequence + 1); // frees the slot for producers
+			try
+			{
+				out.append(line);
+			}
+			catch (IOException e)
+			{
+				dropped.incrementAndGet(); // the event is lost, but logging must go on
+			}
+		}
+	}
+
+	private void format(StringBuilder line, int slot)
+	{
+		Message message = messages[slot];
+		String subject = subjects[slot];
+		if (format == Format.TEXT)
+		{
+			if (subject != null)
+				line.append(subject).append(": ");
+			line.append(message.message()).append('\n');
+			return;
+		}
+
+		line.append("{\"ts\":").append(timeMs[slot]);
+		line.append(",\"level\":\"").append(Level.values()[levels[slot]]).append('"');
+		line.append(",\"event\":\"").append(message.name()).append('"');
+		if (subject != null)
+			appendJsonString(line.append(",\"subject\":"), subject);
+		if (listingIDs[slot] >= 0)
+			line.append(",\"listing\":").append(listingIDs[slot]);
+		line.append(",\"value\":").append(values[slot]);
+		appendJsonString(line.append(",\"message\":"), message.message());
+		line.append("}\n");
+	}
+
+	private static void appendJsonString(StringBuilder line, String value)
+	{
+		line.append('"');
+		for (int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				line.append('\\').append(c);
+			else if (c < 0x20)
+				line.append(String.format("\\u%04x", (int) c));
+			else
+				line.append(c);
+		}
+		line.append('"');
+	}
+
+	private static void flushQuietly(Writer out)
+	{
+		try
+		{
+			out.flush();
+		}
+		catch (IOException e)
+		{
+			// nothing to do: the output is gone, and the server must not notice
+		}
+	}
+}
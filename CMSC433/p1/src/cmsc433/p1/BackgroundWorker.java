@@ -0,0 +1,71 @@
+package cmsc433.p1;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A daemon thread, shared by all servers, that takes tasks from a queue and
+ * handles them one at a time for as long as the JVM runs. The background
+ * services of the server (closing expired auctions, delivering events,
+ * compacting settled items) are built on it.
+ *
+ * A task that throws is reported to the <code>AuditLog</code> and the thread
+ * goes on with the next one, so one bad task cannot stop the service for
+ * every server. Nothing interrupts these threads on purpose, so a stray
+ * interrupt is ignored.
+ */
+abstract class BackgroundWorker<T>
+{
+	protected final BlockingQueue<T> queue;
+	private final Thread thread;
+
+	BackgroundWorker(String name, BlockingQueue<T> queue)
+	{
+		this.queue = queue;
+		thread = new Thread(new Runnable() {
+			public void run()
+			{
+				workForever();
+			}
+		}, name);
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Start the thread.  Called by the subclass constructor once its own fields are set.
+	 */
+	final void start()
+	{
+		thread.start();
+	}
+
+	/**
+	 * Handle one task taken from the queue.
+	 */
+	abstract void handle(T task);
+
+	private void workForever()
+	{
+		while (true)
+		{
+			T task;
+			try
+			{
+				task = queue.take();
+			}
+			catch (InterruptedException e)
+			{
+				continue;
+			}
+
+			try
+			{
+				handle(task);
+			}
+			catch (RuntimeException e)
+			{
+				AuditLog.getInstance().log(AuditLog.Level.ERROR, AuditLog.ServerMessage.BACKGROUND_FAILURE,
+						thread.getName() + ": " + e, -1, 0);
+			}
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package cmsc433.p1;
+
+/**
+ * An immutable snapshot of the bidding state of one item: its highest bid,
+ * who made it, and whether bidding is open, closed or paid for.
+ * 
+ * The server keeps one record per item in an <code>AtomicReference</code>
+ * and moves it forward by swapping in a new record with compare-and-set, so
+ * a bid, a close or a payment either applies to exactly the state it checked
+ * or retries. Every swap bumps the record's version, so of two records for
+ * the same item the one with the higher version is always the later one.
+ */
+public final class BidRecord
+{
+	public enum State { OPEN, CLOSED, SOLD }
+
+	private final int amount;
+	private final String bidder;
+	private final State state;
+	private final int paid;
+	private final long version;
+
+	public BidRecord(int amount, String bidder, State state)
+	{
+		this(amount, bidder, state, 0, 0);
+	}
+
+	public BidRecord(int amount, String bidder, State state, int paid, long version)
+	{
+		this.amount = amount;
+		this.bidder = bidder;
+		this.state = state;
+		this.paid = paid;
+		this.version = version;
+	}
+
+	/**
+	 * @return The record of an open item nobody has bid on yet
+	 */
+	public static BidRecord unbid()
+	{
+		return new BidRecord(0, null, State.OPEN);
+	}
+
+	/**
+	 * @return The highest bid, only meaningful if <code>bidder()</code> is not null
+	 */
+	public int amount()
+	{
+		return this.amount;
+	}
+
+	/**
+	 * @return The highest bidder, or null if there is no (remaining) bid
+	 */
+	public String bidder()
+	{
+		return this.bidder;
+	}
+
+	public State state()
+	{
+		return this.state;
+	}
+
+	/**
+	 * @return What the winner paid, which may exceed <code>amount()</code>; 0 unless <code>SOLD</code>
+	 */
+	public int paid()
+	{
+		return this.paid;
+	}
+
+	/**
+	 * @return Number of changes this item went through to reach this record
+	 */
+	public long version()
+	{
+		return this.version;
+	}
+
+	public boolean hasBid()
+	{
+		return this.bidder != null;
+	}
+
+	/**
+	 * @return The same state with a new highest bid
+	 */
+	public BidRecord withBid(int amount, String bidder)
+	{
+		return new BidRecord(amount, bidder, this.state, this.paid, this.version + 1);
+	}
+
+	public BidRecord withState(State state)
+	{
+		return new BidRecord(this.amount, this.bidder, state, this.paid, this.version + 1);
+	}
+
+	/**
+	 * @return The same state with the bid removed, as if it was never made
+	 */
+	public BidRecord withoutBid()
+	{
+		return new BidRecord(0, null, this.state, this.paid, this.version + 1);
+	}
+
+	/**
+	 * @return The record once the winner paid <code>paid</code>
+	 */
+	public BidRecord withPayment(int paid)
+	{
+		return new BidRecord(this.amount, this.bidder, State.SOLD, paid, this.version + 1);
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.state + (this.bidder == null ? "" : " " + this.bidder + "@" + this.amount);
+	}
+}
@@ -0,0 +1,26 @@
+package cmsc433.p1;
+
+/**
+ * One bid in a batch passed to <code>AuctionServer.submitBids</code>.
+ */
+public final class BidRequest
+{
+	private final int listingID;
+	private final int biddingAmount;
+
+	public BidRequest(int listingID, int biddingAmount)
+	{
+		this.listingID = listingID;
+		this.biddingAmount = biddingAmount;
+	}
+
+	public int listingID()
+	{
+		return this.listingID;
+	}
+
+	public int biddingAmount()
+	{
+		return this.biddingAmount;
+	}
+}
@@ -0,0 +1,36 @@
+package cmsc433.p1;
+
+/**
+ * The outcome of one bid, as reported per bid by
+ * <code>AuctionServer.submitBids</code>.
+ */
+public enum BidResult implements AuditLog.Message
+{
+	ACCEPTED("Bid successfully submitted at this point"),
+	NOT_AVAILABLE("Item is not available for bidding"),
+	BLACKLISTED("Bidder has been blacklisted"),
+	ALREADY_HIGHEST("Bidder already has highest bid"),
+	BELOW_CURRENT("Subsequent bids must be greater than current bid price"),
+	BELOW_MINIMUM("Initial bid must be greater than or equal to lowestBiddingPrice"),
+	TOO_MANY_BIDS("Bidder has too many outstanding bids");
+
+	private final String message;
+
+	private BidResult(String message)
+	{
+		this.message = message;
+	}
+
+	public boolean accepted()
+	{
+		return this == ACCEPTED;
+	}
+
+	/**
+	 * @return Human-readable reason, as printed by the server
+	 */
+	public String message()
+	{
+		return this.message;
+	}
+}
@@ -0,0 +1,46 @@
+package cmsc433.p1;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable, versioned view of the items up for bidding at one moment.
+ * 
+ * The server publishes a new snapshot every time an item is listed or
+ * expires, so readers can hold on to a snapshot for as long as they like
+ * without locking and without it changing under them. Two snapshots with the
+ * same version have the same items.
+ */
+public final class CatalogSnapshot
+{
+	private final long version;
+	private final List<Item> items;
+
+	public CatalogSnapshot(long version, Item[] items)
+	{
+		this.version = version;
+		this.items = Collections.unmodifiableList(Arrays.asList(items));
+	}
+
+	/**
+	 * @return Number of catalog changes before this snapshot was taken
+	 */
+	public long version()
+	{
+		return this.version;
+	}
+
+	/**
+	 * @return The items up for bidding; the list cannot be modified
+	 */
+	public List<Item> items()
+	{
+		return this.items;
+	}
+
+	public int size()
+	{
+		return this.items.size();
+	}
+}
@@ -0,0 +1,41 @@
+package cmsc433.p1;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Moves settled items into each server's <code>ItemArchive</code> in the
+ * background, so that the thread whose payment or close settled an item does
+ * not pay for archiving it.
+ * 
+ * One background thread is shared by all servers. A server asks for a pass
+ * once enough settled items have piled up, and never has more than one pass
+ * queued at a time.
+ */
+class Compactor extends BackgroundWorker<AuctionServer>
+{
+	private static Compactor instance = new Compactor();
+
+	static Compactor getInstance() { return instance; }
+
+	private Compactor()
+	{
+		super("auction-compactor", new LinkedBlockingQueue<AuctionServer>());
+		start();
+	}
+
+	/**
+	 * Have <code>server.compactInBackground()</code> called soon.
+	 */
+	void request(AuctionServer server)
+	{
+		queue.add(server);
+	}
+
+	/**
+	 * Run one compaction pass.  If it fails, the settled items stay live and the next pass retries them.
+	 */
+	void handle(AuctionServer server)
+	{
+		server.compactInBackground();
+	}
+}
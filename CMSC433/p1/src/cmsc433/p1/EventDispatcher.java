@@ -0,0 +1,79 @@
+package cmsc433.p1;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers <code>AuctionEvents</code> to their listeners on one background
+ * thread shared by all servers, so that a bid or a close never waits for a
+ * listener.
+ * 
+ * Events are delivered in the order they were dispatched. When listeners
+ * fall <code>CAPACITY</code> events behind, new non-final events are dropped
+ * and counted rather than blocking the server. Final events are always
+ * queued: a subscription gets exactly one, so there are never more of them
+ * waiting than there are subscriptions.
+ */
+class EventDispatcher extends BackgroundWorker<EventDispatcher.Delivery>
+{
+	public static final int CAPACITY = 1 << 14; // events waiting for delivery before non-final ones are dropped
+
+	private static EventDispatcher instance = new EventDispatcher();
+
+	static EventDispatcher getInstance() { return instance; }
+
+	private final AtomicInteger pending = new AtomicInteger(); // events queued and not yet delivered
+	private final AtomicLong dropped = new AtomicLong();
+
+	private EventDispatcher()
+	{
+		super("auction-events", new LinkedBlockingQueue<Delivery>());
+		start();
+	}
+
+	/**
+	 * Queue <code>event</code> for <code>listener</code> without blocking.
+	 * @return False if the event was not final and was dropped because <code>CAPACITY</code> events are waiting
+	 */
+	boolean dispatch(AuctionListener listener, AuctionEvent event)
+	{
+		if (!event.isFinal() && pending.get() >= CAPACITY)
+		{
+			dropped.incrementAndGet();
+			return false;
+		}
+		pending.incrementAndGet();
+		queue.add(new Delivery(listener, event));
+		return true;
+	}
+
+	/**
+	 * @return Number of events dropped so far because <code>CAPACITY</code> events were waiting
+	 */
+	long droppedEvents()
+	{
+		return dropped.get();
+	}
+
+	/**
+	 * Call one listener.  A listener that throws only loses that event; the others are still delivered.
+	 */
+	void handle(Delivery delivery)
+	{
+		pending.decrementAndGet();
+		delivery.listener.auctionEvent(delivery.event);
+	}
+
+	static final class Delivery
+	{
+		final AuctionListener listener;
+		final AuctionEvent event;
+
+		Delivery(AuctionListener listener, AuctionEvent event)
+		{
+			this.listener = listener;
+			this.event = event;
+		}
+	}
+}
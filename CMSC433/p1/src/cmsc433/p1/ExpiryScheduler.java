@@ -0,0 +1,74 @@
+package cmsc433.p1;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closes auctions at the moment their bidding time runs out, instead of
+ * waiting for some client to call <code>checkBidStatus</code> on them.
+ * 
+ * Every listed item is queued in a <code>DelayQueue</code> ordered by its
+ * closing time, and one background thread shared by all servers takes each
+ * item as it expires and settles it on the server that listed it.
+ */
+class ExpiryScheduler extends BackgroundWorker<ExpiryScheduler.Expiry>
+{
+	private static ExpiryScheduler instance = new ExpiryScheduler();
+
+	static ExpiryScheduler getInstance() { return instance; }
+
+	private ExpiryScheduler()
+	{
+		super("auction-expiry", new DelayQueue<Expiry>());
+		start();
+	}
+
+	/**
+	 * Have <code>server.expire(item)</code> called once bidding on
+	 * <code>item</code> closes.
+	 */
+	void schedule(AuctionServer server, Item item)
+	{
+		queue.add(new Expiry(server, item));
+	}
+
+	/**
+	 * Close an item whose time is up.  If that fails the item stays open past its deadline, until a
+	 * <code>checkBidStatus</code> on it closes it.
+	 */
+	void handle(Expiry expiry)
+	{
+		expiry.server.expire(expiry.item);
+	}
+
+	/**
+	 * An item waiting in the queue for its closing time.
+	 */
+	static final class Expiry implements Delayed
+	{
+		final AuctionServer server;
+		final Item item;
+		final long deadlineNs;
+
+		Expiry(AuctionServer server, Item item)
+		{
+			this.server = server;
+			this.item = item;
+			this.deadlineNs = item.biddingEndNs();
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit)
+		{
+			return unit.convert(this.deadlineNs - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other)
+		{
+			long difference = this.deadlineNs - ((Expiry) other).deadlineNs;
+			return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+		}
+	}
+}
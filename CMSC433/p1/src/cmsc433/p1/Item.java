@@ -1,7 +1,5 @@
 package cmsc433.p1;
 
-import java.util.Date;
-
 
 /**
  * Stores the initial information for an item submitted for bidding.
@@ -15,9 +13,19 @@ public class Item
     private int lowestBiddingPrice;
     private int biddingDurationMs;
     
-    private Date biddingStart;
+    private long biddingStartNs; // System.nanoTime() when bidding started
     
 	public Item(String seller, String name, int listingID, int lowestBiddingPrice, int biddingDurationMs)
+	{
+	    this(seller, name, listingID, lowestBiddingPrice, biddingDurationMs, System.nanoTime());
+	}
+	
+	/**
+	 * Recreates an item whose bidding started at <code>biddingStartNs</code>
+	 * (a <code>System.nanoTime()</code> value), such as one read back from a
+	 * journal.
+	 */
+	Item(String seller, String name, int listingID, int lowestBiddingPrice, int biddingDurationMs, long biddingStartNs)
 	{
 	    this.seller = seller;
 		this.name = name;
@@ -25,7 +33,7 @@ public class Item
 		this.lowestBiddingPrice = lowestBiddingPrice;
 		this.biddingDurationMs = biddingDurationMs;
 		
-		this.biddingStart = new Date();
+		this.biddingStartNs = biddingStartNs;
 	}
 	
 	public String seller()
@@ -62,8 +70,16 @@ public class Item
 	 */
 	public boolean biddingOpen()
 	{
-	    Date now = new Date();
-	    return (now.getTime() - this.biddingStart.getTime()) / 1 < this.biddingDurationMs;
+	    return System.nanoTime() - this.biddingStartNs < this.biddingDurationMs * 1000000L;
+	}
+	
+	/**
+	 * Returns the <code>System.nanoTime()</code> value at which bidding on
+	 * this item closes.
+	 */
+	public long biddingEndNs()
+	{
+	    return this.biddingStartNs + this.biddingDurationMs * 1000000L;
 	}
 	
 	@Override
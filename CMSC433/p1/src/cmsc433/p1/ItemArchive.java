@@ -0,0 +1,185 @@
+package cmsc433.p1;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Columnar store of settled items: sold ones, and ones that closed without
+ * a bid. Nothing about such an item can change any more, so instead of an
+ * <code>Item</code>, a <code>BidRecord</code>, an <code>AtomicReference</code>
+ * and two map entries per item, the archive keeps one row of primitive
+ * columns, with seller and bidder names stored once in a string table and
+ * item names packed into one byte array.
+ *
+ * Rows are only ever appended, in the order items were archived. A dense
+ * array indexed by listing ID (which the server hands out from 0 upwards)
+ * finds the row of an item; in a shard, by <code>listingID / stride</code>.
+ */
+class ItemArchive
+{
+	private static final int INITIAL_ROWS = 256;
+	private static final int NONE = -1; // no row, or no bidder
+
+	private final int stride;
+	private final int offset;
+	private int rows = 0;
+	private int[] rowOf = new int[0]; // ListingTable.indexOf(listing ID) -> row, or NONE
+
+	// one entry per row
+	private int[] listingID = new int[INITIAL_ROWS];
+	private int[] seller = new int[INITIAL_ROWS]; // index into strings
+	private int[] nameEnd = new int[INITIAL_ROWS]; // end of the item's name in names
+	private int[] lowestBiddingPrice = new int[INITIAL_ROWS];
+	private int[] biddingDurationMs = new int[INITIAL_ROWS];
+	private byte[] state = new byte[INITIAL_ROWS];
+	private int[] amount = new int[INITIAL_ROWS];
+	private int[] bidder = new int[INITIAL_ROWS]; // index into strings, or NONE
+	private int[] paid = new int[INITIAL_ROWS];
+	private long[] version = new long[INITIAL_ROWS];
+
+	private byte[] names = new byte[INITIAL_ROWS * 8]; // UTF-8 item names, back to back
+	private int namesLength = 0;
+
+	private ArrayList<String> strings = new ArrayList<String>();
+	private HashMap<String, Integer> stringIDs = new HashMap<String, Integer>();
+
+	ItemArchive()
+	{
+		this(1, 0);
+	}
+
+	/**
+	 * @param stride Difference between consecutive listing IDs of the server
+	 * @param offset Lowest listing ID of the server, below <code>stride</code>
+	 */
+	ItemArchive(int stride, int offset)
+	{
+		this.stride = stride;
+		this.offset = offset;
+	}
+
+	/**
+	 * Append a settled item.
+	 */
+	synchronized void add(Item item, BidRecord record)
+	{
+		if (rows == listingID.length)
+			grow();
+		int id = item.listingID();
+		int index = ListingTable.indexOf(id, stride, offset);
+		if (index < 0)
+			throw new IllegalArgumentException("listing ID " + id + " does not belong in this archive");
+		if (index >= rowOf.length)
+		{
+			int oldLength = rowOf.length;
+			rowOf = Arrays.copyOf(rowOf, Math.max(index + 1, oldLength * 2));
+			Arrays.fill(rowOf, oldLength, rowOf.length, NONE);
+		}
+
+		byte[] name = item.name().getBytes(StandardCharsets.UTF_8);
+		if (namesLength + name.length > names.length)
+			names = Arrays.copyOf(names, Math.max(namesLength + name.length, names.length * 2));
+		System.arraycopy(name, 0, names, namesLength, name.length);
+		namesLength += name.length;
+
+		listingID[rows] = id;
+		seller[rows] = intern(item.seller());
+		nameEnd[rows] = namesLength;
+		lowestBiddingPrice[rows] = item.lowestBiddingPrice();
+		biddingDurationMs[rows] = item.biddingDurationMs();
+		state[rows] = (byte) record.state().ordinal();
+		amount[rows] = record.amount();
+		bidder[rows] = record.hasBid() ? intern(record.bidder()) : NONE;
+		paid[rows] = record.paid();
+		version[rows] = record.version();
+		rowOf[index] = rows;
+		rows++;
+	}
+
+	/**
+	 * @return Number of archived items
+	 */
+	synchronized int size()
+	{
+		return rows;
+	}
+
+	synchronized boolean contains(int listingID)
+	{
+		return rowFor(listingID) != NONE;
+	}
+
+	/**
+	 * @return The final record of an archived item, or null if it is not archived
+	 */
+	synchronized BidRecord record(int listingID)
+	{
+		int row = rowFor(listingID);
+		return row == NONE ? null : recordAt(row);
+	}
+
+	/**
+	 * @return What <code>AuctionServer.itemPrice</code> reports for an archived
+	 * item, or -1 if it is not archived
+	 */
+	synchronized int price(int listingID)
+	{
+		int row = rowFor(listingID);
+		if (row == NONE)
+			return -1;
+		return bidder[row] == NONE ? lowestBiddingPrice[row] : amount[row];
+	}
+
+	/**
+	 * Rebuild the <code>Item</code> stored in a row. Its bidding is over.
+	 */
+	synchronized Item itemAt(int row)
+	{
+		int nameStart = row == 0 ? 0 : nameEnd[row - 1];
+		String name = new String(names, nameStart, nameEnd[row] - nameStart, StandardCharsets.UTF_8);
+		long biddingStartNs = System.nanoTime() - biddingDurationMs[row] * 1000000L;
+		return new Item(strings.get(seller[row]), name, listingID[row], lowestBiddingPrice[row],
+				biddingDurationMs[row], biddingStartNs);
+	}
+
+	synchronized BidRecord recordAt(int row)
+	{
+		return new BidRecord(amount[row], bidder[row] == NONE ? null : strings.get(bidder[row]),
+				BidRecord.State.values()[state[row]], paid[row], version[row]);
+	}
+
+	private int rowFor(int listingID)
+	{
+		int index = ListingTable.indexOf(listingID, stride, offset);
+		return index >= 0 && index < rowOf.length ? rowOf[index] : NONE;
+	}
+
+	private int intern(String value)
+	{
+		Integer id = stringIDs.get(value);
+		if (id == null)
+		{
+			id = strings.size();
+			strings.add(value);
+			stringIDs.put(value, id);
+		}
+		return id;
+	}
+
+	private void grow()
+	{
+		int capacity = listingID.length * 2;
+		listingID = Arrays.copyOf(listingID, capacity);
+		seller = Arrays.copyOf(seller, capacity);
+		nameEnd = Arrays.copyOf(nameEnd, capacity);
+		lowestBiddingPrice = Arrays.copyOf(lowestBiddingPrice, capacity);
+		biddingDurationMs = Arrays.copyOf(biddingDurationMs, capacity);
+		state = Arrays.copyOf(state, capacity);
+		amount = Arrays.copyOf(amount, capacity);
+		bidder = Arrays.copyOf(bidder, capacity);
+		paid = Arrays.copyOf(paid, capacity);
+		version = Arrays.copyOf(version, capacity);
+	}
+}
@@ -0,0 +1,599 @@
+package cmsc433.p1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary journal of everything that changes an
+ * <code>AuctionServer</code>, so that a restarted server can rebuild its
+ * state: listed items, every new <code>BidRecord</code> (bids, closes,
+ * payments and cancelled bids) and blacklisted bidders.
+ *
+ * Server threads only encode a record and queue it; one writer thread
+ * drains everything queued, writes it in one go and fsyncs once per batch
+ * (group commit). A bid therefore never waits for the disk, at the price of
+ * losing the last few milliseconds of changes in a crash. Callers that need
+ * a change to be durable call <code>sync()</code>. When the writer falls
+ * <code>QUEUE_CAPACITY</code> records behind, server threads wait for it, but
+ * only up to <code>APPEND_TIMEOUT_MS</code>; after that, or if the writer
+ * cannot write, the journal fails. Nothing more is written from then on: the
+ * failure is logged to the <code>AuditLog</code> once, every record thrown
+ * away is counted in <code>ServerMetrics</code>, and <code>sync()</code> and
+ * <code>checkpoint()</code> report it.
+ *
+ * Files live in one directory and are numbered by generation.
+ * <code>checkpoint</code> starts a new generation, writes a snapshot of the
+ * whole server as <code>snapshot-N.dat</code> and deletes the older files.
+ * Recovery loads the newest snapshot and replays every journal of the same
+ * or a later generation. The snapshot is taken while the server keeps
+ * running, so records may be seen twice or, between racing threads, out of
+ * order; replay keeps the highest <code>BidRecord</code> version of each
+ * item, which makes both harmless.
+ * <p>
+ * Each record is <code>[int length][byte type][payload][int crc32]</code>.
+ * Reading stops at the first torn or corrupt record.
+ */
+class Journal
+{
+	public static final int MAX_BATCH = 4096; // records written per group commit
+	public static final int QUEUE_CAPACITY = 1 << 16; // records waiting for the writer before appends wait
+	public static final int APPEND_TIMEOUT_MS = 100; // longest wait for room in a full queue before the journal fails
+
+	// record types
+	static final byte ITEM = 1;
+	static final byte BID = 2;
+	static final byte CLOSE = 3;
+	static final byte PAY = 4;
+	static final byte CANCEL = 5;
+	static final byte BLACKLIST = 6;
+
+	/**
+	 * Receives the records read back during recovery.
+	 */
+	interface Replayer
+	{
+		void item(Item item);
+
+		void record(int listingID, BidRecord record);
+
+		void blacklist(String bidderName);
+	}
+
+	private final File directory;
+	private final boolean fsync;
+	private final ServerMetrics metrics;
+	private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<Entry>(QUEUE_CAPACITY);
+	private final Thread writer;
+	private final Object checkpointLock = new Object();
+	private final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+
+	private long generation; // generation being appended to; only the writer changes it after start
+	private FileOutputStream file;
+	private BufferedOutputStream out;
+
+	/**
+	 * Replay the journal in <code>directory</code> into <code>replayer</code>,
+	 * then start appending to a new generation.
+	 * @param fsync Whether each group commit is forced to disk before
+	 * <code>sync()</code> returns
+	 * @param metrics Counts journal failures and the records they lose
+	 */
+	static Journal open(File directory, boolean fsync, ServerMetrics metrics, Replayer replayer) throws IOException
+	{
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("cannot create journal directory " + directory);
+
+		long snapshot = -1;
+		long newest = -1;
+		for (String name : directory.list())
+		{
+			long generation = generationOf(name);
+			if (generation < 0)
+				continue;
+			newest = Math.max(newest, generation);
+			if (name.startsWith("snapshot-"))
+				snapshot = Math.max(snapshot, generation);
+		}
+
+		if (snapshot >= 0)
+			replay(snapshotFile(directory, snapshot), replayer);
+		for (long generation = Math.max(snapshot, 0); generation <= newest; generation++)
+		{
+			File journal = journalFile(directory, generation);
+			if (journal.exists())
+				replay(journal, replayer);
+		}
+		return new Journal(directory, fsync, metrics, newest + 1);
+	}
+
+	private Journal(File directory, boolean fsync, ServerMetrics metrics, long generation) throws IOException
+	{
+		this.directory = directory;
+		this.fsync = fsync;
+		this.metrics = metrics;
+		this.generation = generation;
+		openGeneration(generation);
+
+		writer = new Thread(new Runnable() {
+			public void run()
+			{
+				writeForever();
+			}
+		}, "auction-journal");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	void logItem(Item item)
+	{
+		append(encodeItem(item));
+	}
+
+	/**
+	 * @param type One of <code>BID</code>, <code>CLOSE</code>, <code>PAY</code> or <code>CANCEL</code>
+	 */
+	void logRecord(byte type, int listingID, BidRecord record)
+	{
+		append(encodeRecord(type, listingID, record));
+	}
+
+	void logBlacklist(String bidderName)
+	{
+		append(encodeBlacklist(bidderName));
+	}
+
+	/**
+	 * Wait until everything logged so far is written (and forced, if
+	 * <code>fsync</code> is on).
+	 * @throws IOException If the writer failed; nothing logged since has been kept
+	 */
+	void sync() throws IOException, InterruptedException
+	{
+		Entry barrier = new Entry(null, new CountDownLatch(1), false);
+		queue.put(barrier);
+		barrier.done.await();
+		checkFailure();
+	}
+
+	/**
+	 * Start a new generation, write a snapshot of the given state and delete
+	 * the files the snapshot replaces. The server keeps running meanwhile;
+	 * live items are written before archived ones, so an item archived during
+	 * the snapshot is written at least once.
+	 * @param listingLock Held by the server from logging a new item until the item is in <code>items</code>;
+	 * held here only to queue the rotation, so that every item logged to the old generation is in
+	 * <code>items</code> by the time the snapshot reads it
+	 */
+	void checkpoint(Object listingLock, ListingTable<Item> items, ListingTable<BidRecord> bids,
+			ItemArchive archive, Collection<String> blacklist)
+			throws IOException, InterruptedException
+	{
+		synchronized(checkpointLock)
+		{
+			// everything logged before the rotation is reflected in the state read below
+			Entry rotation = new Entry(null, new CountDownLatch(1), true);
+			long deadlineNs = System.nanoTime() + APPEND_TIMEOUT_MS * 1000000L;
+			while (true)
+			{
+				synchronized(listingLock)
+				{
+					if (queue.offer(rotation))
+						break;
+				}
+				if (System.nanoTime() - deadlineNs > 0)
+				{
+					fail(new IOException("writer stayed " + QUEUE_CAPACITY + " records behind for "
+							+ APPEND_TIMEOUT_MS + "ms"));
+					checkFailure();
+				}
+				Thread.sleep(1); //Wait for room without holding up listings
+			}
+			rotation.done.await();
+			checkFailure();
+			long snapshotGeneration = generation;
+
+			File temporary = new File(directory, "snapshot-" + snapshotGeneration + ".tmp");
+			FileOutputStream snapshotFile = new FileOutputStream(temporary);
+			try
+			{
+				BufferedOutputStream snapshot = new BufferedOutputStream(snapshotFile, 1 << 16);
+				for (int listingID = 0; listingID < items.limit(); listingID++)
+				{
+					Item item = items.get(listingID);
+					BidRecord record = bids.get(listingID);
+					if (item == null || record == null)
+						continue; // never listed, or archived meanwhile
+					snapshot.write(encodeItem(item));
+					snapshot.write(encodeRecord(BID, listingID, record));
+				}
+				for (int row = 0; row < archive.size(); row++)
+				{
+					Item item = archive.itemAt(row);
+					snapshot.write(encodeItem(item));
+					snapshot.write(encodeRecord(BID, item.listingID(), archive.recordAt(row)));
+				}
+				for (String bidderName : blacklist)
+					snapshot.write(encodeBlacklist(bidderName));
+				snapshot.flush();
+				snapshotFile.getFD().sync();
+			}
+			finally
+			{
+				snapshotFile.close();
+			}
+			Files.move(temporary.toPath(), snapshotFile(directory, snapshotGeneration).toPath(),
+					StandardCopyOption.ATOMIC_MOVE);
+
+			for (String name : directory.list())
+			{
+				long generation = generationOf(name);
+				if (generation >= 0 && generation < snapshotGeneration)
+					new File(directory, name).delete();
+			}
+		}
+	}
+
+	/**
+	 * Write out everything logged so far and stop the writer.
+	 */
+	void close() throws IOException, InterruptedException
+	{
+		sync();
+		writer.interrupt();
+		writer.join();
+		out.close();
+	}
+
+	private void append(byte[] record)
+	{
+		if (failure.get() == null && enqueue(new Entry(record, null, false)))
+			return;
+		metrics.countJournalLoss();
+		if (failure.get() == null)
+		{
+			//A journal with a hole in it would recover a wrong state, so stop journaling altogether
+			fail(new IOException("writer stayed " + QUEUE_CAPACITY + " records behind for " + APPEND_TIMEOUT_MS
+					+ "ms"));
+		}
+	}
+
+	/**
+	 * Queue an entry, waiting up to <code>APPEND_TIMEOUT_MS</code> for room if the queue is full.
+	 * @return False if there was still no room
+	 */
+	private boolean enqueue(Entry entry)
+	{
+		if (queue.offer(entry))
+			return true;
+		try
+		{
+			return queue.offer(entry, APPEND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt(); //Leave the interrupt to the caller, but still try to keep the record
+			return queue.offer(entry);
+		}
+	}
+
+	/**
+	 * Stop journaling for good, and report why the first time.
+	 */
+	private void fail(IOException e)
+	{
+		if (!failure.compareAndSet(null, e))
+			return;
+		metrics.countJournalFailure();
+		AuditLog.getInstance().log(AuditLog.Level.ERROR, AuditLog.ServerMessage.JOURNAL_FAILURE,
+				e.getMessage(), -1, 0);
+	}
+
+	private void checkFailure() throws IOException
+	{
+		IOException e = failure.get();
+		if (e != null)
+			throw new IOException("journal writer failed", e);
+	}
+
+	private void writeForever()
+	{
+		List<Entry> batch = new ArrayList<Entry>(MAX_BATCH);
+		while (true)
+		{
+			try
+			{
+				batch.add(queue.take());
+			}
+			catch (InterruptedException e)
+			{
+				return; // close() has synced everything already
+			}
+			queue.drainTo(batch, MAX_BATCH - 1);
+
+			boolean written = false;
+			try
+			{
+				if (failure.get() == null)
+				{
+					for (Entry entry : batch)
+					{
+						if (entry.record != null)
+							out.write(entry.record);
+						else if (entry.rotate)
+						{
+							commit();
+							out.close();
+							openGeneration(++generation);
+						}
+					}
+					commit();
+					written = true;
+				}
+			}
+			catch (IOException e)
+			{
+				fail(e);
+			}
+
+			// release sync() and checkpoint() callers whether or not the write worked; they check failure
+			for (Entry entry : batch)
+			{
+				if (entry.record != null && !written)
+					metrics.countJournalLoss();
+				if (entry.done != null)
+					entry.done.countDown();
+			}
+			batch.clear();
+		}
+	}
+
+	private void commit() throws IOException
+	{
+		out.flush();
+		if (fsync)
+			file.getFD().sync();
+	}
+
+	private void openGeneration(long generation) throws IOException
+	{
+		file = new FileOutputStream(journalFile(directory, generation), true);
+		out = new BufferedOutputStream(file, 1 << 16);
+	}
+
+	private static byte[] encodeItem(Item item)
+	{
+		// store the closing time as wall-clock time, since nanoTime means nothing after a restart
+		long endEpochMs = System.currentTimeMillis() + (item.biddingEndNs() - System.nanoTime()) / 1000000L;
+		try
+		{
+			Encoder encoder = new Encoder(ITEM);
+			encoder.data.writeInt(item.listingID());
+			encoder.data.writeUTF(item.seller());
+			encoder.data.writeUTF(item.name());
+			encoder.data.writeInt(item.lowestBiddingPrice());
+			encoder.data.writeInt(item.biddingDurationMs());
+			encoder.data.writeLong(endEpochMs);
+			return encoder.finish();
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e); // in-memory streams do not throw
+		}
+	}
+
+	private static byte[] encodeRecord(byte type, int listingID, BidRecord record)
+	{
+		try
+		{
+			Encoder encoder = new Encoder(type);
+			encoder.data.writeInt(listingID);
+			encoder.data.writeLong(record.version());
+			encoder.data.writeByte(record.state().ordinal());
+			encoder.data.writeInt(record.amount());
+			encoder.data.writeInt(record.paid());
+			encoder.data.writeBoolean(record.hasBid());
+			if (record.hasBid())
+				encoder.data.writeUTF(record.bidder());
+			return encoder.finish();
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] encodeBlacklist(String bidderName)
+	{
+		try
+		{
+			Encoder encoder = new Encoder(BLACKLIST);
+			encoder.data.writeUTF(bidderName);
+			return encoder.finish();
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Feed every intact record of <code>file</code> to <code>replayer</code>.
+	 */
+	private static void replay(File file, Replayer replayer) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try
+		{
+			CRC32 crc = new CRC32();
+			while (true)
+			{
+				byte[] body;
+				try
+				{
+					int length = in.readInt();
+					if (length <= 0 || length > (1 << 20))
+						return; // garbage where the next record should start
+					body = new byte[length];
+					in.readFully(body);
+					crc.reset();
+					crc.update(body, 0, length);
+					if (in.readInt() != (int) crc.getValue())
+						return; // torn write
+				}
+				catch (EOFException e)
+				{
+					return;
+				}
+				apply(body, replayer);
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private static void apply(byte[] body, Replayer replayer) throws IOException
+	{
+		DataInputStream data = new DataInputStream(new ByteArrayInputStream(body, 1, body.length - 1));
+		switch (body[0])
+		{
+		case ITEM:
+			int listingID = data.readInt();
+			String seller = data.readUTF();
+			String name = data.readUTF();
+			int lowestBiddingPrice = data.readInt();
+			int biddingDurationMs = data.readInt();
+			long endEpochMs = data.readLong();
+			long biddingStartNs = System.nanoTime() + (endEpochMs - System.currentTimeMillis()) * 1000000L
+					- biddingDurationMs * 1000000L;
+			replayer.item(new Item(seller, name, listingID, lowestBiddingPrice, biddingDurationMs, biddingStartNs));
+			break;
+
+		case BID:
+		case CLOSE:
+		case PAY:
+		case CANCEL:
+			int recordID = data.readInt();
+			long version = data.readLong();
+			BidRecord.State state = BidRecord.State.values()[data.readByte()];
+			int amount = data.readInt();
+			int paid = data.readInt();
+			String bidder = data.readBoolean() ? data.readUTF() : null;
+			replayer.record(recordID, new BidRecord(amount, bidder, state, paid, version));
+			break;
+
+		case BLACKLIST:
+			replayer.blacklist(data.readUTF());
+			break;
+
+		default:
+			throw new IOException("unknown journal record type " + body[0]);
+		}
+	}
+
+	/**
+	 * @return Generation number of a journal or snapshot file name, or -1
+	 */
+	private static long generationOf(String name)
+	{
+		String number;
+		if (name.startsWith("journal-") && name.endsWith(".log"))
+			number = name.substring("journal-".length(), name.length() - ".log".length());
+		else if (name.startsWith("snapshot-") && name.endsWith(".dat"))
+			number = name.substring("snapshot-".length(), name.length() - ".dat".length());
+		else
+			return -1;
+		try
+		{
+			return Long.parseLong(number);
+		}
+		catch (NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+
+	private static File journalFile(File directory, long generation)
+	{
+		return new File(directory, "journal-" + generation + ".log");
+	}
+
+	private static File snapshotFile(File directory, long generation)
+	{
+		return new File(directory, "snapshot-" + generation + ".dat");
+	}
+
+	/**
+	 * Builds one framed record: type and payload, with length and checksum
+	 * filled in by <code>finish()</code>.
+	 */
+	private static final class Encoder
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		final DataOutputStream data = new DataOutputStream(bytes);
+
+		Encoder(byte type) throws IOException
+		{
+			data.writeInt(0); // length, patched in finish()
+			data.writeByte(type);
+		}
+
+		byte[] finish() throws IOException
+		{
+			data.writeInt(0); // checksum placeholder
+			byte[] record = bytes.toByteArray();
+			int length = record.length - 8;
+			CRC32 crc = new CRC32();
+			crc.update(record, 4, length);
+			putInt(record, 0, length);
+			putInt(record, record.length - 4, (int) crc.getValue());
+			return record;
+		}
+
+		private static void putInt(byte[] target, int offset, int value)
+		{
+			target[offset] = (byte) (value >>> 24);
+			target[offset + 1] = (byte) (value >>> 16);
+			target[offset + 2] = (byte) (value >>> 8);
+			target[offset + 3] = (byte) value;
+		}
+	}
+
+	/**
+	 * A queued record, or a marker that releases a waiting caller once
+	 * everything queued before it has been committed.
+	 */
+	private static final class Entry
+	{
+		final byte[] record;
+		final CountDownLatch done;
+		final boolean rotate; // start a new generation before releasing done
+
+		Entry(byte[] record, CountDownLatch done, boolean rotate)
+		{
+			this.record = record;
+			this.done = done;
+			this.rotate = rotate;
+		}
+	}
+}
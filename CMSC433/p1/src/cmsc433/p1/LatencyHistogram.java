@@ -0,0 +1,118 @@
+package cmsc433.p1;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in nanoseconds, from which percentiles can be read while
+ * other threads keep recording.
+ *
+ * Buckets are log-linear, like those of HdrHistogram: values below 32 get a
+ * bucket each, and every power of two above that is split into 16 equal
+ * buckets, so a percentile is reported to within about 6% of the recorded
+ * value, from 1ns up to the largest <code>long</code>, in a fixed 960 slots.
+ * Recording is one array increment plus two counter updates and never
+ * allocates or locks.
+ */
+public final class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // exact values below this
+	private static final int HALF = SUB_BUCKETS / 2; // buckets per power of two above it
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * HALF + SUB_BUCKETS - HALF;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Count one duration.  Negative durations (a clock read out of order) count as 0.
+	 */
+	public void record(long valueNs)
+	{
+		if (valueNs < 0)
+			valueNs = 0;
+		counts.incrementAndGet(bucketOf(valueNs));
+		total.incrementAndGet();
+		sum.addAndGet(valueNs);
+		long current;
+		while (valueNs > (current = max.get()) && !max.compareAndSet(current, valueNs))
+			;
+	}
+
+	/**
+	 * Count the time since <code>startNs</code>, a value of <code>System.nanoTime()</code>.
+	 */
+	public void recordSince(long startNs)
+	{
+		record(System.nanoTime() - startNs);
+	}
+
+	public long count()
+	{
+		return total.get();
+	}
+
+	public long maxNs()
+	{
+		return max.get();
+	}
+
+	public long meanNs()
+	{
+		long count = total.get();
+		return count == 0 ? 0 : sum.get() / count;
+	}
+
+	/**
+	 * @param percentile Between 0 and 100
+	 * @return The largest value that falls in the same bucket as the value at
+	 * <code>percentile</code>, or 0 if nothing was recorded
+	 */
+	public long percentileNs(double percentile)
+	{
+		long count = total.get();
+		if (count == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+		long seen = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++)
+		{
+			seen += counts.get(bucket);
+			if (seen >= rank)
+				return Math.min(highestIn(bucket), max.get());
+		}
+		return max.get(); // records landed between reading total and the buckets
+	}
+
+	/**
+	 * Forget everything recorded so far.  Records made during the reset may be partly kept.
+	 */
+	public void reset()
+	{
+		for (int bucket = 0; bucket < BUCKETS; bucket++)
+			counts.set(bucket, 0);
+		total.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	private static int bucketOf(long value)
+	{
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+		return shift * HALF + (int) (value >>> shift);
+	}
+
+	private static long highestIn(int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int shift = bucket / HALF - 1;
+		long sub = bucket % HALF + HALF;
+		long next = (sub + 1) << shift;
+		return next < 0 ? Long.MAX_VALUE : next - 1;
+	}
+}
@@ -0,0 +1,84 @@
+package cmsc433.p1;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent set of listing IDs, one bit per ID. Segments never move once
+ * created, so bits can be set at any time, even while the set grows. Like a
+ * <code>ListingTable</code>, a shard's set only has bits for the IDs of that
+ * shard.
+ */
+public class ListingBits
+{
+	private static final int SEGMENT_BITS = 16; // IDs per segment, as a power of two
+	private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+
+	private final int stride;
+	private final int offset;
+	private volatile AtomicLongArray[] segments = new AtomicLongArray[1];
+
+	public ListingBits()
+	{
+		this(1, 0);
+	}
+
+	/**
+	 * @param stride Difference between consecutive listing IDs held by this set
+	 * @param offset Lowest listing ID held by this set, below <code>stride</code>
+	 */
+	public ListingBits(int stride, int offset)
+	{
+		this.stride = stride;
+		this.offset = offset;
+	}
+
+	/**
+	 * @return True if the ID was not in the set yet
+	 */
+	public boolean add(int listingID)
+	{
+		int index = ListingTable.indexOf(listingID, stride, offset);
+		if (index < 0)
+			throw new IllegalArgumentException("listing ID " + listingID + " does not belong in this set");
+		AtomicLongArray segment = segmentCreating(index >>> SEGMENT_BITS);
+		int bit = index & SEGMENT_MASK;
+		long mask = 1L << bit;
+		while (true)
+		{
+			long word = segment.get(bit >>> 6);
+			if ((word & mask) != 0)
+				return false;
+			if (segment.compareAndSet(bit >>> 6, word, word | mask))
+				return true;
+		}
+	}
+
+	public boolean contains(int listingID)
+	{
+		int index = ListingTable.indexOf(listingID, stride, offset);
+		int segment = index >>> SEGMENT_BITS; // -1 lands past the end
+		AtomicLongArray[] directory = this.segments;
+		if (segment >= directory.length || directory[segment] == null)
+			return false;
+		int bit = index & SEGMENT_MASK;
+		return (directory[segment].get(bit >>> 6) & (1L << bit)) != 0;
+	}
+
+	private AtomicLongArray segmentCreating(int index)
+	{
+		AtomicLongArray[] directory = this.segments;
+		if (index < directory.length && directory[index] != null)
+			return directory[index];
+		synchronized(this)
+		{
+			directory = this.segments;
+			if (index >= directory.length)
+				directory = Arrays.copyOf(directory, Math.max(index + 1, directory.length * 2));
+			if (directory[index] == null)
+				directory[index] = new AtomicLongArray(1 << (SEGMENT_BITS - 6));
+			this.segments = directory;
+			return directory[index];
+		}
+	}
+}
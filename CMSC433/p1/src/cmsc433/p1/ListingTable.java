@@ -0,0 +1,240 @@
+package cmsc433.p1;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A concurrent map from listing ID to value, stored as a dense array indexed
+ * by the ID itself. Listing IDs are handed out from 0 upwards, so there is
+ * no hashing, no boxed <code>Integer</code> key and no entry object per
+ * listing; a lookup is two array reads.
+ *
+ * The array is split into fixed segments that never move once created, and
+ * only the small directory of segments is copied when the table grows. Slots
+ * can therefore be updated with compare-and-set at any time, even while
+ * another thread grows the table. A null slot means no value.
+ * <p>
+ * Each segment counts its filled slots, and is dropped as soon as the last
+ * one is cleared, so the table only holds memory for the ranges of IDs that
+ * still have values. Replacing one value with another, which is what the
+ * server does on every bid, does not touch the count.
+ * <p>
+ * A shard of a partitioned server only holds every <code>stride</code>-th
+ * listing ID, starting at <code>offset</code>, so its table is indexed by
+ * <code>listingID / stride</code> to stay dense. IDs of other shards are
+ * never present.
+ */
+public class ListingTable<T>
+{
+	private static final int SEGMENT_BITS = 10;
+	private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private final int stride;
+	private final int offset;
+	private volatile Segment<T>[] segments = newDirectory(4);
+	private volatile int limit = 0; // one past the highest ID ever set
+
+	public ListingTable()
+	{
+		this(1, 0);
+	}
+
+	/**
+	 * @param stride Difference between consecutive listing IDs held by this table
+	 * @param offset Lowest listing ID held by this table, below <code>stride</code>
+	 */
+	public ListingTable(int stride, int offset)
+	{
+		this.stride = stride;
+		this.offset = offset;
+	}
+
+	public T get(int listingID)
+	{
+		int index = indexOf(listingID, stride, offset);
+		Segment<T> segment = segmentFor(index);
+		return segment == null ? null : segment.get(index & SEGMENT_MASK);
+	}
+
+	public void set(int listingID, T value)
+	{
+		if (value == null)
+		{
+			remove(listingID);
+			return;
+		}
+		int index = indexOf(listingID, stride, offset);
+		Segment<T> segment = reserve(listingID, index);
+		if (segment.getAndSet(index & SEGMENT_MASK, value) != null)
+			release(segment, index); //The slot was already counted
+	}
+
+	public boolean compareAndSet(int listingID, T expect, T update)
+	{
+		int index = indexOf(listingID, stride, offset);
+		if (expect != null && update != null) //Replacing a value: the slot stays filled
+		{
+			Segment<T> segment = segmentFor(index);
+			return segment != null && segment.compareAndSet(index & SEGMENT_MASK, expect, update);
+		}
+		if (update != null) //Filling an empty slot
+		{
+			Segment<T> segment = reserve(listingID, index);
+			if (segment.compareAndSet(index & SEGMENT_MASK, null, update))
+				return true;
+			release(segment, index);
+			return false;
+		}
+		if (expect == null)
+			return get(listingID) == null; //Clearing an empty slot is a no-op
+		Segment<T> segment = segmentFor(index);
+		if (segment == null || !segment.compareAndSet(index & SEGMENT_MASK, expect, null))
+			return false;
+		release(segment, index);
+		return true;
+	}
+
+	/**
+	 * Clear a slot.
+	 * @return The value it held, or null
+	 */
+	public T remove(int listingID)
+	{
+		int index = indexOf(listingID, stride, offset);
+		Segment<T> segment = segmentFor(index);
+		if (segment == null)
+			return null;
+		T previous = segment.getAndSet(index & SEGMENT_MASK, null);
+		if (previous != null)
+			release(segment, index);
+		return previous;
+	}
+
+	/**
+	 * @return One past the highest listing ID ever set; every ID with a value is below it
+	 */
+	public int limit()
+	{
+		return this.limit;
+	}
+
+	/**
+	 * @return Number of segments currently allocated
+	 */
+	public int segmentCount()
+	{
+		int count = 0;
+		for (Segment<T> segment : this.segments)
+		{
+			if (segment != null)
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return Slot of <code>listingID</code> in a table holding every <code>stride</code>-th ID from
+	 * <code>offset</code>, or -1 if the ID cannot be in that table
+	 */
+	static int indexOf(int listingID, int stride, int offset)
+	{
+		if (stride == 1)
+			return listingID;
+		int index = (listingID - offset) / stride;
+		return listingID >= offset && index * stride + offset == listingID ? index : -1;
+	}
+
+	private Segment<T> segmentFor(int index)
+	{
+		int segmentIndex = index >>> SEGMENT_BITS;
+		Segment<T>[] directory = this.segments;
+		return segmentIndex < directory.length ? directory[segmentIndex] : null; // -1 lands past the end too
+	}
+
+	/**
+	 * Count a slot that is about to be filled, so that its segment cannot be dropped meanwhile.
+	 * @return The segment holding the slot, created if missing
+	 */
+	private Segment<T> reserve(int listingID, int index)
+	{
+		if (index < 0)
+			throw new IllegalArgumentException("listing ID " + listingID + " does not belong in this table");
+		Segment<T> segment = segmentFor(index);
+		if (segment != null && listingID < limit && segment.enter())
+			return segment;
+		synchronized(this)
+		{
+			int segmentIndex = index >>> SEGMENT_BITS;
+			Segment<T>[] directory = this.segments;
+			if (segmentIndex >= directory.length)
+				directory = Arrays.copyOf(directory, Math.max(segmentIndex + 1, directory.length * 2));
+			segment = directory[segmentIndex];
+			if (segment == null || !segment.enter()) //Missing, or dropped but not yet unlinked
+			{
+				segment = new Segment<T>();
+				directory[segmentIndex] = segment;
+			}
+			this.segments = directory; // publishes the new segment, if any
+			if (listingID >= limit)
+				limit = listingID + 1;
+			return segment;
+		}
+	}
+
+	/**
+	 * Uncount a slot that was cleared or never filled, and drop its segment if that was the last one.
+	 */
+	private void release(Segment<T> segment, int index)
+	{
+		if (segment.filled.decrementAndGet() != 0 || !segment.filled.compareAndSet(0, Segment.DROPPED))
+			return;
+		synchronized(this)
+		{
+			Segment<T>[] directory = this.segments;
+			int segmentIndex = index >>> SEGMENT_BITS;
+			if (directory[segmentIndex] == segment)
+			{
+				directory[segmentIndex] = null;
+				this.segments = directory;
+			}
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <T> Segment<T>[] newDirectory(int length)
+	{
+		return new Segment[length];
+	}
+
+	private static final class Segment<T> extends AtomicReferenceArray<T>
+	{
+		private static final long serialVersionUID = 1L;
+
+		static final int DROPPED = -1;
+
+		// filled slots plus fills in progress; DROPPED once it reached 0, after which the segment stays empty
+		final AtomicInteger filled = new AtomicInteger(1); // created for a fill
+
+		Segment()
+		{
+			super(SEGMENT_SIZE);
+		}
+
+		/**
+		 * @return False if the segment has been dropped and must not be filled again
+		 */
+		boolean enter()
+		{
+			while (true)
+			{
+				int count = filled.get();
+				if (count == DROPPED)
+					return false;
+				if (filled.compareAndSet(count, count + 1))
+					return true;
+			}
+		}
+	}
+}
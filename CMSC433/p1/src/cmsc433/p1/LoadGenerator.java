@@ -0,0 +1,416 @@
+package cmsc433.p1;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives an <code>AuctionServer</code> with far more clients than
+ * <code>Simulation</code>, which needs a thread per client.
+ *
+ * A simulated client is a small state machine, not a thread: each of its
+ * actions is a task on a shared <code>ScheduledExecutorService</code>, and
+ * between actions it waits for a random think time without holding a thread,
+ * so a handful of threads serve any number of clients. Clients arrive at a
+ * fixed average rate with exponentially distributed gaps (an open system:
+ * arrivals do not wait for the server), perform a number of actions each and
+ * leave. One client in five is a seller listing items; the others look at the
+ * catalog, bid on a random item just above its price, check how their bids
+ * went and pay for what they won. A bidder out of actions stays until each of
+ * its bids has closed and every item it won is paid for.
+ * <p>
+ * Every server call is timed by the client in a <code>LatencyHistogram</code>
+ * per operation. Actions that start late because every thread was busy are
+ * measured too, so a saturated generator shows up in the report instead of
+ * quietly lowering the load.
+ */
+public class LoadGenerator
+{
+	private static final int SELLER_EVERY = 5; // every fifth client is a seller
+	private static final int MAX_TRACKED_BIDS = 8; // bids a bidder remembers to check on
+	private static final int SETTLE_POLL_MS = 50; // shortest pause of a client waiting for its auctions to close
+
+	private final AuctionServer server;
+	private final int clients;
+	private final double arrivalsPerSecond;
+	private final int thinkTimeMs;
+	private final int actionsPerClient;
+	private final int threads;
+	private final long randomSeed;
+	private final RecordingAuctionServer recorder; // server, if it records the calls, so clients can name themselves
+	private int minBiddingDurationMs = 100;
+	private int maxBiddingDurationMs = 300;
+
+	private final LatencyHistogram[] latencies = new LatencyHistogram[ServerMetrics.Operation.values().length];
+	private final LatencyHistogram startDelay = new LatencyHistogram(); // how late actions started
+	private final AtomicLong failures = new AtomicLong(); // calls that threw
+	private final AtomicLong bidsAccepted = new AtomicLong();
+	private final AtomicLong itemsWon = new AtomicLong();
+
+	private ScheduledExecutorService executor;
+	private CountDownLatch finished;
+	private long elapsedNs;
+
+	/**
+	 * @param server Server under load
+	 * @param clients Number of clients that arrive over the whole run
+	 * @param arrivalsPerSecond Average rate at which new clients arrive
+	 * @param thinkTimeMs Average pause of a client between two actions
+	 * @param actionsPerClient Actions each client performs before leaving
+	 * @param threads Threads that run the clients' actions
+	 * @param randomSeed Seed of the arrival times and of every client's choices
+	 */
+	public LoadGenerator(AuctionServer server, int clients, double arrivalsPerSecond, int thinkTimeMs,
+			int actionsPerClient, int threads, long randomSeed)
+	{
+		this.server = server;
+		this.clients = clients;
+		this.arrivalsPerSecond = arrivalsPerSecond;
+		this.thinkTimeMs = thinkTimeMs;
+		this.actionsPerClient = actionsPerClient;
+		this.threads = threads;
+		this.randomSeed = randomSeed;
+		this.recorder = server instanceof RecordingAuctionServer ? (RecordingAuctionServer) server : null;
+		for (int i = 0; i < latencies.length; i++)
+			latencies[i] = new LatencyHistogram();
+	}
+
+	/**
+	 * Set how long the items sellers list stay open: a random time between <code>minMs</code> and
+	 * <code>maxMs</code>, 100 to 300ms by default.
+	 */
+	public void setBiddingDurationMs(int minMs, int maxMs)
+	{
+		this.minBiddingDurationMs = minMs;
+		this.maxBiddingDurationMs = maxMs;
+	}
+
+	/**
+	 * Let every client arrive and wait until the last one has left.
+	 */
+	public void run() throws InterruptedException
+	{
+		executor = new ScheduledThreadPoolExecutor(threads);
+		finished = new CountDownLatch(clients);
+		long startNs = System.nanoTime();
+		executor.execute(new Arrivals(startNs));
+		try
+		{
+			finished.await();
+		}
+		finally
+		{
+			elapsedNs = System.nanoTime() - startNs;
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return Client-side latencies of one server operation during the last run
+	 */
+	public LatencyHistogram latency(ServerMetrics.Operation operation)
+	{
+		return latencies[operation.ordinal()];
+	}
+
+	/**
+	 * @return Calls of <code>operation</code> per second over the last run
+	 */
+	public double throughput(ServerMetrics.Operation operation)
+	{
+		return elapsedNs == 0 ? 0 : latency(operation).count() * 1e9 / elapsedNs;
+	}
+
+	/**
+	 * @return How late actions started compared to when their client wanted them to
+	 */
+	public LatencyHistogram startDelay()
+	{
+		return startDelay;
+	}
+
+	public long failures()
+	{
+		return failures.get();
+	}
+
+	/**
+	 * @return Throughput and latency percentiles of every operation as plain text, latencies in microseconds
+	 */
+	public String report()
+	{
+		StringBuilder text = new StringBuilder();
+		text.append(String.format(Locale.ROOT, "%d clients in %.1f s, %d bids accepted, %d items won, %d failed calls%n%n",
+				clients, elapsedNs / 1e9, bidsAccepted.get(), itemsWon.get(), failures.get()));
+		text.append(String.format(Locale.ROOT, "%-18s %10s %10s %10s %10s %10s %10s%n",
+				"operation", "count", "ops/s", "p50", "p99", "p99.9", "max"));
+		for (ServerMetrics.Operation operation : ServerMetrics.Operation.values())
+		{
+			LatencyHistogram histogram = latency(operation);
+			if (histogram.count() == 0)
+				continue;
+			text.append(String.format(Locale.ROOT, "%-18s %10d %10.0f %10.1f %10.1f %10.1f %10.1f%n",
+					operation.name(), histogram.count(), throughput(operation), histogram.percentileNs(50) / 1000.0,
+					histogram.percentileNs(99) / 1000.0, histogram.percentileNs(99.9) / 1000.0,
+					histogram.maxNs() / 1000.0));
+		}
+		text.append(String.format(Locale.ROOT, "%-18s %10d %10s %10.1f %10.1f %10.1f %10.1f%n", "start delay",
+				startDelay.count(), "", startDelay.percentileNs(50) / 1000.0, startDelay.percentileNs(99) / 1000.0,
+				startDelay.percentileNs(99.9) / 1000.0, startDelay.maxNs() / 1000.0));
+		return text.toString();
+	}
+
+	/**
+	 * @return An exponentially distributed delay in nanoseconds with the given mean
+	 */
+	private static long exponentialNs(Random random, double meanNs)
+	{
+		return (long) (-meanNs * Math.log(1 - random.nextDouble()));
+	}
+
+	/**
+	 * Admits every client whose arrival time has come, then reschedules itself for the next one.
+	 */
+	private final class Arrivals implements Runnable
+	{
+		private final Random random = new Random(randomSeed);
+		private final double meanGapNs = 1e9 / arrivalsPerSecond;
+		private long nextArrivalNs;
+		private int arrived = 0;
+
+		Arrivals(long startNs)
+		{
+			this.nextArrivalNs = startNs;
+		}
+
+		public void run()
+		{
+			long now = System.nanoTime();
+			while (arrived < clients && nextArrivalNs <= now)
+			{
+				int id = arrived++;
+				SimulatedClient client = id % SELLER_EVERY == 0
+						? new SimulatedSeller(id, nextArrivalNs) : new SimulatedBidder(id, nextArrivalNs);
+				executor.execute(client);
+				nextArrivalNs += exponentialNs(random, meanGapNs);
+			}
+			if (arrived < clients)
+				executor.schedule(this, nextArrivalNs - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * One client: performs an action each time it runs, then schedules its next one after a think time.
+	 */
+	private abstract class SimulatedClient implements Runnable
+	{
+		final String name;
+		final Random random;
+		private long dueNs; // when this client wanted its next action to start
+		private int actionsLeft = actionsPerClient;
+
+		SimulatedClient(String name, long randomSeed, long arrivalNs)
+		{
+			this.name = name;
+			this.random = new Random(randomSeed);
+			this.dueNs = arrivalNs;
+		}
+
+		public void run()
+		{
+			if (recorder != null)
+				recorder.setClient(name);
+			if (actionsLeft > 0)
+			{
+				startDelay.record(System.nanoTime() - dueNs);
+				try
+				{
+					act();
+				}
+				catch (RuntimeException e)
+				{
+					failures.incrementAndGet(); // a failing call ends this action, not the client
+				}
+				actionsLeft--;
+			}
+
+			//Out of actions: leave once everything this client started is settled, checking back now and then
+			long thinkNs = exponentialNs(random, thinkTimeMs * 1e6);
+			if (actionsLeft == 0)
+			{
+				if (settled())
+				{
+					finished.countDown();
+					return;
+				}
+				thinkNs = Math.max(thinkNs, SETTLE_POLL_MS * 1000000L);
+			}
+			dueNs = System.nanoTime() + thinkNs;
+			executor.schedule(this, thinkNs, TimeUnit.NANOSECONDS);
+		}
+
+		abstract void act();
+
+		/**
+		 * Settle what the client can before leaving.
+		 * @return False if something is still pending and the client has to come back for it
+		 */
+		boolean settled()
+		{
+			return true;
+		}
+	}
+
+	private final class SimulatedSeller extends SimulatedClient
+	{
+		private int itemsListed = 0;
+
+		SimulatedSeller(int id, long arrivalNs)
+		{
+			super("LoadSeller" + id, randomSeed + id, arrivalNs);
+		}
+
+		void act()
+		{
+			long startNs = System.nanoTime();
+			int listingID = server.submitItem(name, name + "#" + itemsListed, random.nextInt(100),
+					minBiddingDurationMs + random.nextInt(maxBiddingDurationMs - minBiddingDurationMs + 1));
+			latency(ServerMetrics.Operation.SUBMIT_ITEM).recordSince(startNs);
+			if (listingID != -1)
+				itemsListed++;
+		}
+	}
+
+	private final class SimulatedBidder extends SimulatedClient
+	{
+		private final List<Integer> bids = new ArrayList<Integer>(); // items bid on and not yet settled
+
+		SimulatedBidder(int id, long arrivalNs)
+		{
+			super("LoadBuyer" + id, randomSeed + id, arrivalNs);
+		}
+
+		/**
+		 * Check every bid still tracked, paying for the items won, so that a leaving bidder leaves nothing
+		 * unpaid behind.
+		 */
+		@Override
+		boolean settled()
+		{
+			for (Integer listingID : new ArrayList<Integer>(bids))
+			{
+				try
+				{
+					checkBid(listingID);
+				}
+				catch (RuntimeException e)
+				{
+					failures.incrementAndGet();
+					bids.remove(listingID);
+				}
+			}
+			return bids.isEmpty();
+		}
+
+		/**
+		 * Check on an earlier bid (paying if it won) or place a new one.
+		 */
+		void act()
+		{
+			if (!bids.isEmpty() && (bids.size() >= MAX_TRACKED_BIDS || random.nextBoolean()))
+				checkBid(bids.get(random.nextInt(bids.size())));
+			else
+				placeBid();
+		}
+
+		private void placeBid()
+		{
+			long startNs = System.nanoTime();
+			List<Item> items = server.getItems();
+			latency(ServerMetrics.Operation.GET_ITEMS).recordSince(startNs);
+			if (items.isEmpty())
+				return;
+			int listingID = items.get(random.nextInt(items.size())).listingID();
+
+			startNs = System.nanoTime();
+			int price = server.itemPrice(listingID);
+			latency(ServerMetrics.Operation.ITEM_PRICE).recordSince(startNs);
+
+			startNs = System.nanoTime();
+			boolean accepted = server.submitBid(name, listingID, price + 1 + random.nextInt(10));
+			latency(ServerMetrics.Operation.SUBMIT_BID).recordSince(startNs);
+			if (accepted)
+			{
+				bidsAccepted.incrementAndGet();
+				if (!bids.contains(listingID))
+					bids.add(listingID);
+			}
+		}
+
+		private void checkBid(Integer listingID)
+		{
+			long startNs = System.nanoTime();
+			int status = server.checkBidStatus(name, listingID);
+			latency(ServerMetrics.Operation.CHECK_BID_STATUS).recordSince(startNs);
+			if (status == AuctionServer.OPEN)
+				return;
+			bids.remove(listingID);
+			if (status != AuctionServer.SUCCESS)
+				return;
+
+			int price = server.itemPrice(listingID);
+			startNs = System.nanoTime();
+			try
+			{
+				if (server.payForItem(name, listingID, price) != null)
+					itemsWon.incrementAndGet();
+			}
+			catch (InsufficientFundsException e)
+			{
+				failures.incrementAndGet(); //Cannot happen when paying the item's own price
+			}
+			latency(ServerMetrics.Operation.PAY_FOR_ITEM).recordSince(startNs);
+		}
+	}
+
+	/**
+	 * Usage: <code>LoadGenerator [clients [arrivalsPerSecond [thinkTimeMs [actionsPerClient [threads [shards
+	 * [trace [serialize]]]]]]]]</code>.  Defaults to 100000 clients arriving at 5000 per second, each performing
+	 * 10 actions 50ms apart, on twice as many threads as processors, against one unpartitioned server.  Given a
+	 * trace file, records the run there for <code>TraceReplayer</code>, letting one call at a time into the server
+	 * if <code>serialize</code> is <code>true</code>.
+	 */
+	public static void main(String[] args) throws InterruptedException, IOException
+	{
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		double arrivalsPerSecond = args.length > 1 ? Double.parseDouble(args[1]) : 5000;
+		int thinkTimeMs = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+		int actionsPerClient = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : 2 * Runtime.getRuntime().availableProcessors();
+		int shards = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+
+		AuditLog.getInstance().setLevel(AuditLog.Level.WARN); //One line per bid would drown the report
+		AuctionServer server = shards > 1 ? new PartitionedAuctionServer(shards) : AuctionServer.getInstance();
+		RecordingAuctionServer recorder = null;
+		if (args.length > 6)
+			recorder = new RecordingAuctionServer(server, new FileOutputStream(args[6]),
+					args.length > 7 && Boolean.parseBoolean(args[7]));
+		LoadGenerator generator = new LoadGenerator(recorder != null ? recorder : server, clients, arrivalsPerSecond,
+				thinkTimeMs, actionsPerClient, threads, 433);
+		generator.run();
+		if (recorder != null)
+			recorder.close();
+
+		System.out.print(generator.report());
+		System.out.println();
+		System.out.print(server.metrics().dump());
+	}
+}
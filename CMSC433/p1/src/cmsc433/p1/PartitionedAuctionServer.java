@@ -0,0 +1,249 @@
+package cmsc433.p1;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An <code>AuctionServer</code> split into independent shards, so that
+ * listing items and closing auctions on different shards never contend for
+ * the same catalog lock. It can be used anywhere an
+ * <code>AuctionServer</code> is expected.
+ *
+ * Shard <code>i</code> of <code>N</code> owns the listing IDs
+ * <code>i, i + N, i + 2N...</code>, so a call about a listing goes straight
+ * to its shard. A seller's items always go to the same shard, chosen by the
+ * seller's name, which keeps <code>maxSellerItems</code> exact. Buyer quotas,
+ * the blacklist and blacklist cleanup are shared by all shards, so
+ * <code>maxBidCount</code> and blacklisting hold across the whole server.
+ * <code>serverCapacity</code> applies to each shard, so the partitioned server
+ * holds up to <code>N * serverCapacity</code> active items.
+ * <p>
+ * Statistics and the catalog are the sums of those of the shards. They are
+ * not read atomically across shards, so while the server is busy they may
+ * combine slightly different moments of each shard. All shards record into
+ * the one <code>metrics()</code> of the partitioned server; a batch of bids
+ * counts as one <code>SUBMIT_BIDS</code> per shard it touches.
+ */
+public class PartitionedAuctionServer extends AuctionServer
+{
+	private final AuctionServer[] shards;
+
+	/**
+	 * @param shardCount Number of shards, at least 1
+	 */
+	public PartitionedAuctionServer(int shardCount)
+	{
+		if (shardCount < 1)
+			throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+		shards = new AuctionServer[shardCount];
+		for (int i = 0; i < shardCount; i++)
+			shards[i] = new AuctionServer(i, shards, this);
+	}
+
+	public int shardCount()
+	{
+		return shards.length;
+	}
+
+	/**
+	 * @return The shard that owns a listing ID
+	 */
+	private AuctionServer shardOf(int listingID)
+	{
+		return listingID < 0 ? shards[0] : shards[listingID % shards.length];
+	}
+
+	/**
+	 * @return The shard that lists all of a seller's items
+	 */
+	private AuctionServer shardOfSeller(String sellerName)
+	{
+		return shards[(sellerName.hashCode() & Integer.MAX_VALUE) % shards.length];
+	}
+
+	@Override
+	public int soldItemsCount()
+	{
+		int total = 0;
+		for (AuctionServer shard : shards)
+			total += shard.soldItemsCount();
+		return total;
+	}
+
+	@Override
+	public int revenue()
+	{
+		int total = 0;
+		for (AuctionServer shard : shards)
+			total += shard.revenue();
+		return total;
+	}
+
+	@Override
+	public int uncollectedRevenue()
+	{
+		int total = 0;
+		for (AuctionServer shard : shards)
+			total += shard.uncollectedRevenue();
+		return total;
+	}
+
+	@Override
+	public int submitItem(String sellerName, String itemName, int lowestBiddingPrice, int biddingDurationMs)
+	{
+		return shardOfSeller(sellerName).submitItem(sellerName, itemName, lowestBiddingPrice, biddingDurationMs);
+	}
+
+	@Override
+	public List<Item> getItems()
+	{
+		List<Item> items = new ArrayList<Item>();
+		for (AuctionServer shard : shards)
+			items.addAll(shard.getCatalog().items());
+		return items;
+	}
+
+	/**
+	 * @return The catalogs of all shards combined; its version is the sum of theirs
+	 */
+	@Override
+	public CatalogSnapshot getCatalog()
+	{
+		long version = 0;
+		List<Item> items = new ArrayList<Item>();
+		for (AuctionServer shard : shards)
+		{
+			CatalogSnapshot catalog = shard.getCatalog();
+			version += catalog.version();
+			items.addAll(catalog.items());
+		}
+		return new CatalogSnapshot(version, items.toArray(new Item[items.size()]));
+	}
+
+	@Override
+	public boolean submitBid(String bidderName, int listingID, int biddingAmount)
+	{
+		return shardOf(listingID).submitBid(bidderName, listingID, biddingAmount);
+	}
+
+	/**
+	 * Splits the batch by shard and submits each part to its shard.
+	 */
+	@Override
+	public BidResult[] submitBids(String bidderName, List<BidRequest> requests)
+	{
+		List<List<BidRequest>> parts = new ArrayList<List<BidRequest>>();
+		List<List<Integer>> positions = new ArrayList<List<Integer>>();
+		for (int i = 0; i < shards.length; i++)
+		{
+			parts.add(new ArrayList<BidRequest>());
+			positions.add(new ArrayList<Integer>());
+		}
+		int position = 0;
+		for (BidRequest request : requests)
+		{
+			int shard = request.listingID() < 0 ? 0 : request.listingID() % shards.length;
+			parts.get(shard).add(request);
+			positions.get(shard).add(position++);
+		}
+
+		BidResult[] results = new BidResult[requests.size()];
+		for (int i = 0; i < shards.length; i++)
+		{
+			if (parts.get(i).isEmpty())
+				continue;
+			BidResult[] partResults = shards[i].submitBids(bidderName, parts.get(i));
+			for (int j = 0; j < partResults.length; j++)
+				results[positions.get(i).get(j)] = partResults[j];
+		}
+		return results;
+	}
+
+	@Override
+	public int checkBidStatus(String bidderName, int listingID)
+	{
+		return shardOf(listingID).checkBidStatus(bidderName, listingID);
+	}
+
+	@Override
+	public int itemPrice(int listingID)
+	{
+		return shardOf(listingID).itemPrice(listingID);
+	}
+
+	@Override
+	public boolean itemUnbid(int listingID)
+	{
+		return shardOf(listingID).itemUnbid(listingID);
+	}
+
+	@Override
+	public String payForItem(String bidderName, int listingID, int amount) throws InsufficientFundsException
+	{
+		return shardOf(listingID).payForItem(bidderName, listingID, amount);
+	}
+
+	@Override
+	public boolean subscribe(String subscriberName, int listingID, AuctionListener listener)
+	{
+		return shardOf(listingID).subscribe(subscriberName, listingID, listener);
+	}
+
+	@Override
+	public boolean unsubscribe(int listingID, AuctionListener listener)
+	{
+		return shardOf(listingID).unsubscribe(listingID, listener);
+	}
+
+	@Override
+	public int compact()
+	{
+		int archived = 0;
+		for (AuctionServer shard : shards)
+			archived += shard.compact();
+		return archived;
+	}
+
+	@Override
+	public int archivedItemsCount()
+	{
+		int total = 0;
+		for (AuctionServer shard : shards)
+			total += shard.archivedItemsCount();
+		return total;
+	}
+
+	/**
+	 * Each shard keeps its journal in its own subdirectory <code>shard-i</code>.
+	 * Recover with the same number of shards as before.
+	 */
+	@Override
+	public void openJournal(File directory, boolean fsync) throws IOException
+	{
+		for (int i = 0; i < shards.length; i++)
+			shards[i].openJournal(new File(directory, "shard-" + i), fsync);
+	}
+
+	@Override
+	public void syncJournal() throws IOException, InterruptedException
+	{
+		for (AuctionServer shard : shards)
+			shard.syncJournal();
+	}
+
+	@Override
+	public void checkpoint() throws IOException, InterruptedException
+	{
+		for (AuctionServer shard : shards)
+			shard.checkpoint();
+	}
+
+	@Override
+	public void closeJournal() throws IOException, InterruptedException
+	{
+		for (AuctionServer shard : shards)
+			shard.closeJournal();
+	}
+}
@@ -0,0 +1,534 @@
+package cmsc433.p1;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+
+/**
+ * Passes every call on to another <code>AuctionServer</code> and writes the
+ * calls that clients make, with their arguments, results and start times,
+ * to a compact binary trace that <code>TraceReplayer</code> can play back
+ * against any server. It can be used anywhere an <code>AuctionServer</code>
+ * is expected, for instance by the <code>Simulation</code>'s clients.
+ *
+ * Calls are written in the order they started, not the order they returned:
+ * a client only acts on what an earlier call of its own returned, so this
+ * order always puts, say, the listing of an item before any call about it,
+ * while a slow <code>submitItem</code> may well return after the first bid on
+ * its item. Each call takes a ticket as it starts; when it returns it is
+ * written as soon as every call with an earlier ticket has been, and waits in
+ * memory until then. Writing happens one call at a time under a lock of the
+ * recorder, so use it to capture traffic, not to measure the server it
+ * records.
+ * <p>
+ * Calls that overlap are still decided by the server in an order of its own:
+ * two bids racing for an item, or two listings racing for the last free
+ * place. A replay makes them in start order, which may decide them the other
+ * way, and everything that depends on them afterwards diverges as well. To get
+ * a trace that replays exactly, record with <code>serialize</code> set, which
+ * lets one call at a time into the server.
+ * <p>
+ * Each call is recorded with the client that made it, so that a replay can
+ * make every client's calls in order while other clients run concurrently.
+ * By default a client is a thread; a caller that runs many clients on a few
+ * threads names the client each of its threads is acting for with
+ * <code>setClient</code>.
+ * <p>
+ * Calls of <code>getCatalog</code> are recorded as <code>getItems</code>,
+ * calls that throw anything but <code>InsufficientFundsException</code> are
+ * left out, and subscriptions, statistics and journal calls are passed on
+ * without being recorded. If the trace cannot be written, recording stops and
+ * <code>close</code> reports why; the server keeps working.
+ */
+public class RecordingAuctionServer extends AuctionServer
+{
+	private final AuctionServer server;
+	private final long originNs = System.nanoTime();
+	private final AtomicLong tickets = new AtomicLong(); // next ticket to hand out
+	private final ReentrantLock serializer; // held for the whole of each call, or null
+	private final ThreadLocal<String> client = new ThreadLocal<String>() {
+		protected String initialValue()
+		{
+			return "thread" + Thread.currentThread().getId();
+		}
+	};
+
+	// Guarded by traceLock
+	private final Object traceLock = new Object();
+	private final Trace.Output trace;
+	private final HashMap<Long, Call> returned = new HashMap<Long, Call>(); // calls waiting for earlier tickets
+	private long nextTicket = 0; // ticket of the next call to write
+	private IOException failure; // set once writing failed
+	private boolean closed = false;
+
+	/**
+	 * Record calls as they happen, concurrently.
+	 * @param server Server that handles the calls
+	 * @param output Receives the trace; closed by <code>close</code>
+	 */
+	public RecordingAuctionServer(AuctionServer server, OutputStream output) throws IOException
+	{
+		this(server, output, false);
+	}
+
+	/**
+	 * @param server Server that handles the calls
+	 * @param output Receives the trace; closed by <code>close</code>
+	 * @param serialize True to let only one call at a time into <code>server</code>, so that the trace holds
+	 * exactly the order in which the server saw the calls and replays with the same results
+	 */
+	public RecordingAuctionServer(AuctionServer server, OutputStream output, boolean serialize) throws IOException
+	{
+		this.server = server;
+		this.serializer = serialize ? new ReentrantLock() : null;
+		this.trace = new Trace.Output(new DataOutputStream(new BufferedOutputStream(output, 1 << 16)), serialize);
+	}
+
+	/**
+	 * Record the calls the current thread makes from now on as made by <code>client</code>.
+	 * @param client Name of the client, or null to go back to naming the client after the thread
+	 */
+	public void setClient(String client)
+	{
+		if (client == null)
+			this.client.remove();
+		else
+			this.client.set(client);
+	}
+
+	/**
+	 * Finish the trace.  Call it once no call is in progress any more; calls made after this are not recorded.
+	 * @throws IOException If the trace could not be written, now or earlier
+	 */
+	public void close() throws IOException
+	{
+		synchronized(traceLock)
+		{
+			if (closed)
+				return;
+			closed = true;
+			returned.clear();
+			try
+			{
+				trace.close();
+			}
+			catch (IOException e)
+			{
+				if (failure == null)
+					failure = e;
+			}
+			if (failure != null)
+				throw failure;
+		}
+	}
+
+	/**
+	 * A returned call, written to the trace once its turn comes.
+	 */
+	private abstract static class Call
+	{
+		final ServerMetrics.Operation operation;
+		final long startNs;
+		String client; // set by end, on the thread that made the call
+
+		Call(ServerMetrics.Operation operation, long startNs)
+		{
+			this.operation = operation;
+			this.startNs = startNs;
+		}
+
+		/**
+		 * Write the arguments and result.
+		 */
+		abstract void write(Trace.Output trace) throws IOException;
+	}
+
+	/**
+	 * Start a call.
+	 * @return Its ticket
+	 */
+	private long begin()
+	{
+		if (serializer != null)
+			serializer.lock();
+		return tickets.getAndIncrement();
+	}
+
+	/**
+	 * Finish the call that took <code>ticket</code>.
+	 * @param call The returned call, or null if it threw and is left out
+	 */
+	private void end(long ticket, Call call)
+	{
+		try
+		{
+			if (call != null)
+				call.client = client.get();
+			returned(ticket, call);
+		}
+		finally
+		{
+			if (serializer != null)
+				serializer.unlock();
+		}
+	}
+
+	/**
+	 * Hand in the call that took <code>ticket</code>, and write every call that is now due.
+	 * @param call The returned call, or null if it threw and is left out
+	 */
+	private void returned(long ticket, Call call)
+	{
+		synchronized(traceLock)
+		{
+			if (closed)
+				return;
+			returned.put(ticket, call);
+			while (returned.containsKey(nextTicket))
+			{
+				Call next = returned.remove(nextTicket++);
+				if (next == null || failure != null)
+					continue;
+				try
+				{
+					trace.begin(next.operation, (next.startNs - originNs) / 1000, next.client);
+					next.write(trace);
+				}
+				catch (IOException e)
+				{
+					failure = e;
+				}
+			}
+		}
+	}
+
+	@Override
+	public int submitItem(final String sellerName, final String itemName, final int lowestBiddingPrice,
+			final int biddingDurationMs)
+	{
+		long ticket = begin();
+		long startNs = System.nanoTime();
+		Call call = null;
+		try
+		{
+			final int listingID = server.submitItem(sellerName, itemName, lowestBiddingPrice, biddingDurationMs);
+			call = new Call(ServerMetrics.Operation.SUBMIT_ITEM, startNs) {
+				void write(Trace.Output trace) throws IOException
+				{
+					trace.writeName(sellerName);
+					trace.writeName(itemName);
+					trace.writeInt(lowestBiddingPrice);
+					trace.writeInt(biddingDurationMs);
+					trace.writeInt(listingID);
+				}
+			};
+			return listingID;
+		}
+		finally
+		{
+			end(ticket, call);
+		}
+	}
+
+	@Override
+	public List<Item> getItems()
+	{
+		long ticket = begin();
+		long startNs = System.nanoTime();
+		Call call = null;
+		try
+		{
+			List<Item> items = server.getItems();
+			call = itemsCall(startNs, items.size());
+			return items;
+		}
+		finally
+		{
+			end(ticket, call);
+		}
+	}
+
+	@Override
+	public CatalogSnapshot getCatalog()
+	{
+		long ticket = begin();
+		long startNs = System.nanoTime();
+		Call call = null;
+		try
+		{
+			CatalogSnapshot catalog = server.getCatalog();
+			call = itemsCall(startNs, catalog.size());
+			return catalog;
+		}
+		finally
+		{
+			end(ticket, call);
+		}
+	}
+
+	private static Call itemsCall(long startNs, final int count)
+	{
+		return new Call(ServerMetrics.Operation.GET_ITEMS, startNs) {
+			void write(Trace.Output trace) throws IOException
+			{
+				trace.writeInt(count);
+			}
+		};
+	}
+
+	@Override
+	public boolean submitBid(final String bidderName, final int listingID, final int biddingAmount)
+	{
+		long ticket = begin();
+		long startNs = System.nanoTime();
+		Call call = null;
+		try
+		{
+			final boolean accepted = server.submitBid(bidderName, listingID, biddingAmount);
+			call = new Call(ServerMetrics.Operation.SUBMIT_BID, startNs) {
+				void write(Trace.Output trace) throws IOException
+				{
+					trace.writeName(bidderName);
+					trace.writeInt(listingID);
+					trace.writeInt(biddingAmount);
+					trace.writeByte(accepted ? 1 : 0);
+				}
+			};
+			return accepted;
+		}
+		finally
+		{
+			end(ticket, call);
+		}
+	}
+
+	@Override
+	public BidResult[] submitBids(final String bidderName, List<BidRequest> requests)
+	{
+		long ticket = begin();
+		long startNs = System.nanoTime();
+		Call call = null;
+		try
+		{
+			final BidRequest[] batch = requests.toArray(new BidRequest[requests.size()]); //The caller may reuse the list
+			final BidResult[] results = server.submitBids(bidderName, requests);
+			call = new Call(ServerMetrics.Operation.SUBMIT_BIDS, startNs) {
+				void write(Trace.Output trace) throws IOException
+				{
+					trace.writeName(bidderName);
+					trace.writeInt(results.length);
+					for (int i = 0; i < results.length; i++)
+					{
+						trace.writeInt(batch[i].listingID());
+						trace.writeInt(batch[i].biddingAmount());
+						trace.writeByte(results[i].ordinal());
+					}
+				}
+			};
+			return results;
+		}
+		finally
+		{
+			end(ticket, call);
+		}
+	}
+
+	@Override
+	public int checkBidStatus(final String bidderName, final int listingID)
+	{
+		long ticket = begin();
+		long startNs = System.nanoTime();
+		Call call = null;
+		try
+		{
+			final int status = server.checkBidStatus(bidderName, listingID);
+			call = new Call(ServerMetrics.Operation.CHECK_BID_STATUS, startNs) {
+				void write(Trace.Output trace) throws IOException
+				{
+					trace.writeName(bidderName);
+					trace.writeInt(listingID);
+					trace.writeByte(status);
+				}
+			};
+			return status;
+		}
+		finally
+		{
+			end(ticket, call);
+		}
+	}
+
+	@Override
+	public int itemPrice(final int listingID)
+	{
+		long ticket = begin();
+		long startNs = System.nanoTime();
+		Call call = null;
+		try
+		{
+			final int price = server.itemPrice(listingID);
+			call = new Call(ServerMetrics.Operation.ITEM_PRICE, startNs) {
+				void write(Trace.Output trace) throws IOException
+				{
+					trace.writeInt(listingID);
+					trace.writeInt(price);
+				}
+			};
+			return price;
+		}
+		finally
+		{
+			end(ticket, call);
+		}
+	}
+
+	@Override
+	public boolean itemUnbid(final int listingID)
+	{
+		long ticket = begin();
+		long startNs = System.nanoTime();
+		Call call = null;
+		try
+		{
+			final boolean unbid = server.itemUnbid(listingID);
+			call = new Call(ServerMetrics.Operation.ITEM_UNBID, startNs) {
+				void write(Trace.Output trace) throws IOException
+				{
+					trace.writeInt(listingID);
+					trace.writeByte(unbid ? 1 : 0);
+				}
+			};
+			return unbid;
+		}
+		finally
+		{
+			end(ticket, call);
+		}
+	}
+
+	@Override
+	public String payForItem(String bidderName, int listingID, int amount) throws InsufficientFundsException
+	{
+		long ticket = begin();
+		long startNs = System.nanoTime();
+		Call call = null;
+		try
+		{
+			String itemName = server.payForItem(bidderName, listingID, amount);
+			call = paymentCall(startNs, bidderName, listingID, amount, itemName == null ? Trace.PAID_NOTHING : Trace.PAID,
+					itemName);
+			return itemName;
+		}
+		catch (InsufficientFundsException e)
+		{
+			call = paymentCall(startNs, bidderName, listingID, amount, Trace.INSUFFICIENT_FUNDS, null);
+			throw e;
+		}
+		finally
+		{
+			end(ticket, call);
+		}
+	}
+
+	private static Call paymentCall(long startNs, final String bidderName, final int listingID, final int amount,
+			final byte outcome, final String itemName)
+	{
+		return new Call(ServerMetrics.Operation.PAY_FOR_ITEM, startNs) {
+			void write(Trace.Output trace) throws IOException
+			{
+				trace.writeName(bidderName);
+				trace.writeInt(listingID);
+				trace.writeInt(amount);
+				trace.writeByte(outcome);
+				if (outcome == Trace.PAID)
+					trace.writeName(itemName);
+			}
+		};
+	}
+
+	@Override
+	public int soldItemsCount()
+	{
+		return server.soldItemsCount();
+	}
+
+	@Override
+	public int revenue()
+	{
+		return server.revenue();
+	}
+
+	@Override
+	public int uncollectedRevenue()
+	{
+		return server.uncollectedRevenue();
+	}
+
+	@Override
+	public boolean subscribe(String subscriberName, int listingID, AuctionListener listener)
+	{
+		return server.subscribe(subscriberName, listingID, listener);
+	}
+
+	@Override
+	public boolean unsubscribe(int listingID, AuctionListener listener)
+	{
+		return server.unsubscribe(listingID, listener);
+	}
+
+	@Override
+	public int compact()
+	{
+		return server.compact();
+	}
+
+	@Override
+	public int archivedItemsCount()
+	{
+		return server.archivedItemsCount();
+	}
+
+	@Override
+	public ServerMetrics metrics()
+	{
+		return server.metrics();
+	}
+
+	@Override
+	public void registerMetrics(String name) throws JMException
+	{
+		server.registerMetrics(name);
+	}
+
+	@Override
+	public void openJournal(File directory, boolean fsync) throws IOException
+	{
+		server.openJournal(directory, fsync);
+	}
+
+	@Override
+	public void syncJournal() throws IOException, InterruptedException
+	{
+		server.syncJournal();
+	}
+
+	@Override
+	public void checkpoint() throws IOException, InterruptedException
+	{
+		server.checkpoint();
+	}
+
+	@Override
+	public void closeJournal() throws IOException, InterruptedException
+	{
+		server.closeJournal();
+	}
+}
@@ -0,0 +1,330 @@
+package cmsc433.p1;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Live measurements of one <code>AuctionServer</code>: how long each public
+ * operation takes, how long threads wait for and hold its locks, why bids and
+ * listings are turned down, how late auctions close, and the current size of
+ * the server.
+ *
+ * Counters and <code>LatencyHistograms</code> are updated by the server
+ * threads themselves without locking; gauges are read from the server when
+ * asked for. All of it can be read at any time, through
+ * <code>AuctionServer.metrics()</code>, JMX once
+ * <code>AuctionServer.registerMetrics</code> was called, or as text from
+ * <code>dump</code>.
+ */
+public class ServerMetrics implements ServerMetricsMXBean
+{
+	public enum Operation { SUBMIT_ITEM, GET_ITEMS, SUBMIT_BID, SUBMIT_BIDS, CHECK_BID_STATUS, ITEM_PRICE, ITEM_UNBID, PAY_FOR_ITEM }
+
+	public enum Lock { CATALOG, INSTANCE }
+
+	public enum ItemRejection { SERVER_CAPACITY, SELLER_LIMIT }
+
+	private final AuctionServer server; // source of the gauges
+
+	private final LatencyHistogram[] operations = histograms(Operation.values().length);
+	private final LatencyHistogram[] lockWaits = histograms(Lock.values().length); // from asking for a lock to holding it
+	private final LatencyHistogram[] lockHolds = histograms(Lock.values().length);
+	private final LatencyHistogram expiryLag = new LatencyHistogram(); // from closing time to the item being closed
+
+	private final AtomicLongArray bidResults = new AtomicLongArray(BidResult.values().length);
+	private final AtomicLongArray itemRejections = new AtomicLongArray(ItemRejection.values().length);
+	private final AtomicLong journalFailures = new AtomicLong(); // journals that stopped writing
+	private final AtomicLong journalLosses = new AtomicLong(); // records those journals threw away
+
+	ServerMetrics(AuctionServer server)
+	{
+		this.server = server;
+	}
+
+	private static LatencyHistogram[] histograms(int count)
+	{
+		LatencyHistogram[] histograms = new LatencyHistogram[count];
+		for (int i = 0; i < count; i++)
+			histograms[i] = new LatencyHistogram();
+		return histograms;
+	}
+
+	public LatencyHistogram latency(Operation operation)
+	{
+		return operations[operation.ordinal()];
+	}
+
+	public LatencyHistogram lockWait(Lock lock)
+	{
+		return lockWaits[lock.ordinal()];
+	}
+
+	public LatencyHistogram lockHold(Lock lock)
+	{
+		return lockHolds[lock.ordinal()];
+	}
+
+	/**
+	 * @return How long after their closing time auctions were actually closed
+	 */
+	public LatencyHistogram expiryLag()
+	{
+		return expiryLag;
+	}
+
+	/**
+	 * @return Number of bids that ended with <code>result</code>
+	 */
+	public long bidResults(BidResult result)
+	{
+		return bidResults.get(result.ordinal());
+	}
+
+	/**
+	 * @return Number of listings turned down for <code>reason</code>
+	 */
+	public long itemRejections(ItemRejection reason)
+	{
+		return itemRejections.get(reason.ordinal());
+	}
+
+	/**
+	 * @return Number of journals that failed and stopped writing; anything nonzero means a restart may
+	 * lose changes
+	 */
+	public long journalFailures()
+	{
+		return journalFailures.get();
+	}
+
+	/**
+	 * @return Number of changes a failed journal did not write
+	 */
+	public long journalLosses()
+	{
+		return journalLosses.get();
+	}
+
+	void record(Operation operation, long startNs)
+	{
+		operations[operation.ordinal()].recordSince(startNs);
+	}
+
+	/**
+	 * Call first thing once <code>lock</code> is held.
+	 * @param requestedNs <code>System.nanoTime()</code> just before asking for the lock
+	 * @return The time it was acquired, for <code>lockReleased</code>
+	 */
+	long lockAcquired(Lock lock, long requestedNs)
+	{
+		long acquiredNs = System.nanoTime();
+		lockWaits[lock.ordinal()].record(acquiredNs - requestedNs);
+		return acquiredNs;
+	}
+
+	/**
+	 * Call last thing before <code>lock</code> is released.
+	 */
+	void lockReleased(Lock lock, long acquiredNs)
+	{
+		lockHolds[lock.ordinal()].recordSince(acquiredNs);
+	}
+
+	void countBids(BidResult result, int count)
+	{
+		bidResults.addAndGet(result.ordinal(), count);
+	}
+
+	void countRejection(ItemRejection reason)
+	{
+		itemRejections.incrementAndGet(reason.ordinal());
+	}
+
+	void countJournalFailure()
+	{
+		journalFailures.incrementAndGet();
+	}
+
+	void countJournalLoss()
+	{
+		journalLosses.incrementAndGet();
+	}
+
+	void recordExpiryLag(long lagNs)
+	{
+		expiryLag.record(lagNs);
+	}
+
+	public int getActiveItems()
+	{
+		return server.getCatalog().size();
+	}
+
+	public int getArchivedItems()
+	{
+		return server.archivedItemsCount();
+	}
+
+	public int getBlacklistedBidders()
+	{
+		return server.blacklistedCount();
+	}
+
+	public int getSoldItems()
+	{
+		return server.soldItemsCount();
+	}
+
+	public int getRevenue()
+	{
+		return server.revenue();
+	}
+
+	public int getUncollectedRevenue()
+	{
+		return server.uncollectedRevenue();
+	}
+
+	public long getJournalFailures()
+	{
+		return journalFailures();
+	}
+
+	public long getJournalLosses()
+	{
+		return journalLosses();
+	}
+
+	public Map<String, Long> getBidResults()
+	{
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (BidResult result : BidResult.values())
+			counts.put(result.name(), bidResults(result));
+		return counts;
+	}
+
+	public Map<String, Long> getItemRejections()
+	{
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (ItemRejection reason : ItemRejection.values())
+			counts.put(reason.name(), itemRejections(reason));
+		return counts;
+	}
+
+	public Map<String, Long> getOperationCounts()
+	{
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (Operation operation : Operation.values())
+			counts.put(operation.name(), latency(operation).count());
+		return counts;
+	}
+
+	public Map<String, Long> getLatencyP50()
+	{
+		return latencies(50);
+	}
+
+	public Map<String, Long> getLatencyP99()
+	{
+		return latencies(99);
+	}
+
+	public Map<String, Long> getLatencyP999()
+	{
+		return latencies(99.9);
+	}
+
+	/**
+	 * @return Largest latency of each operation, and largest wait for and hold of each lock
+	 */
+	public Map<String, Long> getLatencyMax()
+	{
+		return latencies(100);
+	}
+
+	public long getExpiryLagP99()
+	{
+		return expiryLag.percentileNs(99);
+	}
+
+	public long getExpiryLagMax()
+	{
+		return expiryLag.maxNs();
+	}
+
+	private Map<String, Long> latencies(double percentile)
+	{
+		Map<String, Long> latencies = new TreeMap<String, Long>();
+		for (Operation operation : Operation.values())
+			latencies.put(operation.name(), latency(operation).percentileNs(percentile));
+		for (Lock lock : Lock.values())
+		{
+			latencies.put(lock.name() + "_LOCK_WAIT", lockWait(lock).percentileNs(percentile));
+			latencies.put(lock.name() + "_LOCK_HOLD", lockHold(lock).percentileNs(percentile));
+		}
+		return latencies;
+	}
+
+	/**
+	 * Zero every counter and histogram.  Gauges are unaffected.
+	 */
+	public void reset()
+	{
+		for (LatencyHistogram histogram : operations)
+			histogram.reset();
+		for (LatencyHistogram histogram : lockWaits)
+			histogram.reset();
+		for (LatencyHistogram histogram : lockHolds)
+			histogram.reset();
+		expiryLag.reset();
+		for (int i = 0; i < bidResults.length(); i++)
+			bidResults.set(i, 0);
+		for (int i = 0; i < itemRejections.length(); i++)
+			itemRejections.set(i, 0);
+		journalFailures.set(0);
+		journalLosses.set(0);
+	}
+
+	/**
+	 * @return Every metric as a table of plain text, latencies in microseconds
+	 */
+	public String dump()
+	{
+		StringBuilder text = new StringBuilder();
+		text.append(String.format(Locale.ROOT, "active items %d, archived items %d, blacklisted bidders %d%n",
+				getActiveItems(), getArchivedItems(), getBlacklistedBidders()));
+		text.append(String.format(Locale.ROOT, "sold items %d, revenue %d, uncollected revenue %d%n",
+				getSoldItems(), getRevenue(), getUncollectedRevenue()));
+
+		text.append("bids:");
+		for (BidResult result : BidResult.values())
+			text.append(' ').append(result.name()).append('=').append(bidResults(result));
+		text.append(String.format("%nlistings rejected:"));
+		for (ItemRejection reason : ItemRejection.values())
+			text.append(' ').append(reason.name()).append('=').append(itemRejections(reason));
+		text.append(String.format("%njournal: failures=%d lost records=%d%n%n", journalFailures(), journalLosses()));
+
+		text.append(String.format(Locale.ROOT, "%-22s %10s %10s %10s %10s %10s %10s%n",
+				"latency (us)", "count", "mean", "p50", "p99", "p99.9", "max"));
+		for (Operation operation : Operation.values())
+			row(text, operation.name(), latency(operation));
+		for (Lock lock : Lock.values())
+		{
+			row(text, lock.name() + "_LOCK_WAIT", lockWait(lock));
+			row(text, lock.name() + "_LOCK_HOLD", lockHold(lock));
+		}
+		row(text, "EXPIRY_LAG", expiryLag);
+		return text.toString();
+	}
+
+	private static void row(StringBuilder text, String name, LatencyHistogram histogram)
+	{
+		text.append(String.format(Locale.ROOT, "%-22s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", name,
+				histogram.count(), histogram.meanNs() / 1000.0, histogram.percentileNs(50) / 1000.0,
+				histogram.percentileNs(99) / 1000.0, histogram.percentileNs(99.9) / 1000.0,
+				histogram.maxNs() / 1000.0));
+	}
+}
@@ -0,0 +1,48 @@
+package cmsc433.p1;
+
+import java.util.Map;
+
+/**
+ * What <code>ServerMetrics</code> shows through JMX. Latencies are in
+ * nanoseconds and keyed by operation or lock name.
+ */
+public interface ServerMetricsMXBean
+{
+	int getActiveItems();
+
+	int getArchivedItems();
+
+	int getBlacklistedBidders();
+
+	int getSoldItems();
+
+	int getRevenue();
+
+	int getUncollectedRevenue();
+
+	long getJournalFailures();
+
+	long getJournalLosses();
+
+	Map<String, Long> getBidResults();
+
+	Map<String, Long> getItemRejections();
+
+	Map<String, Long> getOperationCounts();
+
+	Map<String, Long> getLatencyP50();
+
+	Map<String, Long> getLatencyP99();
+
+	Map<String, Long> getLatencyP999();
+
+	Map<String, Long> getLatencyMax();
+
+	long getExpiryLagP99();
+
+	long getExpiryLagMax();
+
+	String dump();
+
+	void reset();
+}
@@ -0,0 +1,185 @@
+package cmsc433.p1;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The binary format of the traces written by <code>RecordingAuctionServer</code>
+ * and read by <code>TraceReplayer</code>.
+ *
+ * A trace is <code>MAGIC</code>, the version and whether the calls were
+ * serialized as bytes, then one record per completed server call, in the
+ * order the calls started. A record is the operation's
+ * <code>ServerMetrics.Operation</code> ordinal as a byte, the time the call
+ * started in microseconds since the previous record's start, the name of the
+ * client that made it, then the arguments and result of that operation. Integers are zigzag varints, so
+ * small values of either sign take one byte. A name is written as its index
+ * in a table of the names seen so far, followed by the name itself only the
+ * first time it appears.
+ */
+final class Trace
+{
+	static final int MAGIC = 0x41554354; // "AUCT"
+	static final int VERSION = 2;
+
+	// Outcome of payForItem
+	static final byte PAID_NOTHING = 0;
+	static final byte PAID = 1;
+	static final byte INSUFFICIENT_FUNDS = 2;
+
+	private Trace()
+	{
+	}
+
+	static final class Output
+	{
+		private final DataOutputStream out;
+		private final HashMap<String, Integer> names = new HashMap<String, Integer>();
+		private long lastStartUs = 0;
+
+		/**
+		 * @param serialized True if the server let one recorded call in at a time
+		 */
+		Output(DataOutputStream out, boolean serialized) throws IOException
+		{
+			this.out = out;
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeBoolean(serialized);
+		}
+
+		void begin(ServerMetrics.Operation operation, long startUs, String client) throws IOException
+		{
+			out.writeByte(operation.ordinal());
+			writeInt(startUs - lastStartUs);
+			lastStartUs = startUs;
+			writeName(client);
+		}
+
+		void writeInt(long value) throws IOException
+		{
+			long zigzag = (value << 1) ^ (value >> 63);
+			while ((zigzag & ~0x7FL) != 0)
+			{
+				out.writeByte((int) (zigzag & 0x7F) | 0x80);
+				zigzag >>>= 7;
+			}
+			out.writeByte((int) zigzag);
+		}
+
+		void writeByte(int value) throws IOException
+		{
+			out.writeByte(value);
+		}
+
+		void writeName(String name) throws IOException
+		{
+			Integer index = names.get(name);
+			if (index != null)
+			{
+				writeInt(index);
+				return;
+			}
+			writeInt(names.size());
+			names.put(name, names.size());
+			out.writeUTF(name);
+		}
+
+		void close() throws IOException
+		{
+			out.close();
+		}
+	}
+
+	static final class Input
+	{
+		private final DataInputStream in;
+		private final ArrayList<String> names = new ArrayList<String>();
+		private final boolean serialized;
+		private long startUs = 0;
+		private String client;
+
+		Input(DataInputStream in) throws IOException
+		{
+			this.in = in;
+			if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION)
+				throw new IOException("Not an auction trace, or written by another version");
+			this.serialized = in.readBoolean();
+		}
+
+		/**
+		 * @return True if the server let one recorded call in at a time
+		 */
+		boolean serialized()
+		{
+			return serialized;
+		}
+
+		/**
+		 * @return The operation of the next record, or null at the end of the trace
+		 */
+		ServerMetrics.Operation next() throws IOException
+		{
+			int operation = in.read();
+			if (operation < 0)
+				return null;
+			if (operation >= ServerMetrics.Operation.values().length)
+				throw new IOException("Unknown operation " + operation + " in trace");
+			startUs += readLong();
+			client = readName();
+			return ServerMetrics.Operation.values()[operation];
+		}
+
+		/**
+		 * @return When the call of the current record started, in microseconds since recording started
+		 */
+		long startUs()
+		{
+			return startUs;
+		}
+
+		/**
+		 * @return Name of the client that made the call of the current record
+		 */
+		String client()
+		{
+			return client;
+		}
+
+		long readLong() throws IOException
+		{
+			long zigzag = 0;
+			for (int shift = 0; shift < 64; shift += 7)
+			{
+				int b = in.readUnsignedByte();
+				zigzag |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return (zigzag >>> 1) ^ -(zigzag & 1);
+			}
+			throw new IOException("Malformed integer in trace");
+		}
+
+		int readInt() throws IOException
+		{
+			return (int) readLong();
+		}
+
+		int readByte() throws IOException
+		{
+			return in.readUnsignedByte();
+		}
+
+		String readName() throws IOException
+		{
+			int index = readInt();
+			if (index == names.size())
+				names.add(in.readUTF());
+			else if (index < 0 || index > names.size())
+				throw new IOException("Name " + index + " used before it was defined");
+			return names.get(index);
+		}
+	}
+}
@@ -0,0 +1,570 @@
+package cmsc433.p1;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Plays a trace written by <code>RecordingAuctionServer</code> back against
+ * an <code>AuctionServer</code>, so that different server implementations can
+ * be compared on exactly the same traffic.
+ *
+ * The trace is read into memory first and split by client. Every client is
+ * assigned to one of a fixed number of worker threads, which makes that
+ * client's calls in the order it made them, interleaved with the other
+ * clients of the same worker, so the server sees about as much concurrency
+ * as there are workers however many clients the trace holds. Calls are made
+ * either as fast as the server answers, or each at the moment after the start
+ * of the replay that it was made after the start of the recording. A call
+ * about an item is held back, without holding up its worker, until the call
+ * that listed the item has been replayed.
+ * <p>
+ * The calls of a trace recorded with <code>serialize</code> are made one at a
+ * time in the order they started, each on its client's worker: a finished
+ * call hands the turn straight to the worker of the next one, so such a
+ * replay is the same every time.
+ * <p>
+ * Listing IDs are translated, so a server that hands out different IDs (a
+ * <code>PartitionedAuctionServer</code>, say) gets the calls about the same
+ * items. Every call whose result differs from the recorded one counts as a
+ * divergence: that happens when the interleaving of the recorded run or of
+ * the replay decided an outcome differently (which recording with
+ * <code>serialize</code> rules out), and whenever an outcome depends on
+ * exactly when an auction's time ran out, which even a replay at original
+ * timing only reproduces to within the scheduling jitter of both runs.
+ */
+public class TraceReplayer
+{
+	private final AuctionServer server;
+	private final boolean originalTiming;
+	private final int threads;
+
+	private final HashMap<Integer, Long> listedBy = new HashMap<Integer, Long>(); // recorded ID -> call that listed it
+	private final ConcurrentHashMap<Integer, Integer> listingIDs = new ConcurrentHashMap<Integer, Integer>(); // recorded -> replayed
+	private final LatencyHistogram[] latencies = new LatencyHistogram[ServerMetrics.Operation.values().length];
+	private final AtomicLongArray divergences = new AtomicLongArray(ServerMetrics.Operation.values().length);
+	private volatile RuntimeException failure; // first call that threw, rethrown at the end of the replay
+	private long startNs;
+	private long elapsedNs;
+
+	// Guarded by itself; clients whose next call is about an item not yet listed, by recorded listing ID
+	private final HashMap<Integer, List<Client>> waiting = new HashMap<Integer, List<Client>>();
+
+	// Set up by replay before any call is made
+	private boolean serialized;
+	private Call[] order; // every call in trace order, for handing on the turn of a serialized trace
+	private CountDownLatch finished; // counts clients that have calls left
+
+	/**
+	 * Replay on twice as many worker threads as there are processors.
+	 * @param server Server to replay the trace against, normally a fresh one
+	 * @param originalTiming True to make each call as long after the start as it was recorded, false to make
+	 * each call as soon as the server answered its client's previous one
+	 */
+	public TraceReplayer(AuctionServer server, boolean originalTiming)
+	{
+		this(server, originalTiming, 2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param server Server to replay the trace against, normally a fresh one
+	 * @param originalTiming True to make each call as long after the start as it was recorded, false to make
+	 * each call as soon as the server answered its client's previous one
+	 * @param threads Worker threads that make the calls
+	 */
+	public TraceReplayer(AuctionServer server, boolean originalTiming, int threads)
+	{
+		this.server = server;
+		this.originalTiming = originalTiming;
+		this.threads = threads;
+		for (int i = 0; i < latencies.length; i++)
+			latencies[i] = new LatencyHistogram();
+	}
+
+	/**
+	 * Make every call of a trace, and wait until all of them have returned.
+	 * @param input The trace; read to its end but not closed
+	 * @throws IOException If the trace cannot be read or is malformed
+	 * @throws RuntimeException The first exception a call threw; the other calls are still made
+	 */
+	public void replay(InputStream input) throws IOException, InterruptedException
+	{
+		Trace.Input trace = new Trace.Input(new DataInputStream(new BufferedInputStream(input, 1 << 16)));
+		serialized = trace.serialized();
+		ScheduledThreadPoolExecutor[] workers = new ScheduledThreadPoolExecutor[threads];
+		for (int i = 0; i < threads; i++)
+			workers[i] = new ScheduledThreadPoolExecutor(1);
+
+		try
+		{
+			HashMap<String, Client> clients = new HashMap<String, Client>();
+			List<Call> calls = new ArrayList<Call>();
+			ServerMetrics.Operation operation;
+			while ((operation = trace.next()) != null)
+			{
+				Client client = clients.get(trace.client());
+				if (client == null)
+				{
+					client = new Client(workers[clients.size() % threads]);
+					clients.put(trace.client(), client);
+				}
+				Call call = read(operation, trace, calls.size());
+				call.client = client;
+				client.calls.add(call);
+				calls.add(call);
+			}
+			order = calls.toArray(new Call[calls.size()]);
+			finished = new CountDownLatch(clients.size());
+
+			startNs = System.nanoTime();
+			if (serialized)
+			{
+				if (order.length > 0)
+					order[0].client.start();
+			}
+			else
+			{
+				for (Client client : clients.values())
+					client.start();
+			}
+			finished.await();
+			elapsedNs = System.nanoTime() - startNs;
+		}
+		finally
+		{
+			for (ScheduledThreadPoolExecutor worker : workers)
+				worker.shutdownNow();
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * The calls of one recorded client, made in order on the worker the client was assigned to.
+	 */
+	private final class Client implements Runnable
+	{
+		final List<Call> calls = new ArrayList<Call>();
+		final ScheduledThreadPoolExecutor worker;
+		private int next = 0; // only used on the worker
+
+		Client(ScheduledThreadPoolExecutor worker)
+		{
+			this.worker = worker;
+		}
+
+		void start()
+		{
+			worker.execute(this);
+		}
+
+		public void run()
+		{
+			Client client = this;
+			while (client != null)
+				client = client.step();
+		}
+
+		/**
+		 * Make the next call if its time has come and its item is listed, or arrange to come back when it is.
+		 * @return The client to step next on this worker, if a serialized trace hands the turn to one of the
+		 * same worker
+		 */
+		private Client step()
+		{
+			Call call = calls.get(next);
+			if (originalTiming)
+			{
+				long waitNs = startNs + call.startUs * 1000 - System.nanoTime();
+				if (waitNs > 0)
+				{
+					worker.schedule(this, waitNs, TimeUnit.NANOSECONDS);
+					return null;
+				}
+			}
+			if (!serialized && call.waitForListing())
+				return null; // started again once the item is listed
+
+			make(call);
+			if (++next == calls.size())
+				finished.countDown();
+			if (serialized)
+			{
+				if (call.index + 1 == order.length)
+					return null;
+				Client following = order[(int) call.index + 1].client;
+				if (following.worker == worker)
+					return following;
+				following.start();
+			}
+			else if (next < calls.size())
+				start(); // behind the other clients of this worker
+			return null;
+		}
+	}
+
+	private void make(Call call)
+	{
+		try
+		{
+			if (!call.replay())
+				divergences.incrementAndGet(call.operation.ordinal());
+		}
+		catch (RuntimeException e)
+		{
+			if (failure == null)
+				failure = e;
+		}
+	}
+
+	/**
+	 * One recorded call, with its arguments and recorded result.
+	 */
+	private abstract class Call
+	{
+		final ServerMetrics.Operation operation;
+		final long index; // position in the trace
+		final long startUs;
+		final int[] listings; // recorded IDs of the items it is about
+		Client client;
+
+		Call(ServerMetrics.Operation operation, long index, long startUs, int... listings)
+		{
+			this.operation = operation;
+			this.index = index;
+			this.startUs = startUs;
+			this.listings = listings;
+		}
+
+		/**
+		 * If an item this call is about was listed by an earlier call that has not been replayed yet, have
+		 * the client started again once it has.
+		 * @return True if the call has to wait
+		 */
+		boolean waitForListing()
+		{
+			for (int listingID : listings)
+			{
+				Long listing = listedBy.get(listingID); //Only written while the trace is read
+				if (listing == null || listing > index || listingIDs.containsKey(listingID))
+					continue;
+				synchronized(waiting)
+				{
+					if (listingIDs.containsKey(listingID))
+						continue; // listed meanwhile
+					List<Client> clients = waiting.get(listingID);
+					if (clients == null)
+					{
+						clients = new ArrayList<Client>();
+						waiting.put(listingID, clients);
+					}
+					clients.add(client);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Make the call.
+		 * @return False if the server's result differs from the recorded one
+		 */
+		abstract boolean replay();
+	}
+
+	/**
+	 * Read one record's arguments and recorded result.
+	 * @param index Position of the record in the trace
+	 */
+	private Call read(final ServerMetrics.Operation operation, Trace.Input trace, final long index) throws IOException
+	{
+		switch (operation)
+		{
+		case SUBMIT_ITEM:
+		{
+			final String sellerName = trace.readName();
+			final String itemName = trace.readName();
+			final int lowestBiddingPrice = trace.readInt();
+			final int biddingDurationMs = trace.readInt();
+			final int recorded = trace.readInt();
+			if (recorded >= 0)
+				listedBy.put(recorded, index);
+			return new Call(operation, index, trace.startUs()) {
+				boolean replay()
+				{
+					int listingID = -1;
+					long startNs = System.nanoTime();
+					try
+					{
+						listingID = server.submitItem(sellerName, itemName, lowestBiddingPrice, biddingDurationMs);
+					}
+					finally
+					{
+						latency(operation).recordSince(startNs);
+						if (recorded >= 0)
+							listed(recorded, listingID);
+					}
+					return (recorded >= 0) == (listingID >= 0);
+				}
+			};
+		}
+		case GET_ITEMS:
+		{
+			final int recorded = trace.readInt();
+			return new Call(operation, index, trace.startUs()) {
+				boolean replay()
+				{
+					long startNs = System.nanoTime();
+					int count = server.getItems().size();
+					latency(operation).recordSince(startNs);
+					return count == recorded;
+				}
+			};
+		}
+		case SUBMIT_BID:
+		{
+			final String bidderName = trace.readName();
+			final int listingID = trace.readInt();
+			final int biddingAmount = trace.readInt();
+			final boolean recorded = trace.readByte() != 0;
+			return new Call(operation, index, trace.startUs(), listingID) {
+				boolean replay()
+				{
+					int replayedID = translate(listingID);
+					long startNs = System.nanoTime();
+					boolean accepted = server.submitBid(bidderName, replayedID, biddingAmount);
+					latency(operation).recordSince(startNs);
+					return accepted == recorded;
+				}
+			};
+		}
+		case SUBMIT_BIDS:
+		{
+			final String bidderName = trace.readName();
+			final int count = trace.readInt();
+			final int[] listingIDs = new int[count];
+			final int[] amounts = new int[count];
+			final int[] recorded = new int[count];
+			for (int i = 0; i < count; i++)
+			{
+				listingIDs[i] = trace.readInt();
+				amounts[i] = trace.readInt();
+				recorded[i] = trace.readByte();
+			}
+			return new Call(operation, index, trace.startUs(), listingIDs) {
+				boolean replay()
+				{
+					List<BidRequest> requests = new ArrayList<BidRequest>(count);
+					for (int i = 0; i < count; i++)
+						requests.add(new BidRequest(translate(listingIDs[i]), amounts[i]));
+					long startNs = System.nanoTime();
+					BidResult[] results = server.submitBids(bidderName, requests);
+					latency(operation).recordSince(startNs);
+					for (int i = 0; i < count; i++)
+					{
+						if (results[i].ordinal() != recorded[i])
+							return false;
+					}
+					return true;
+				}
+			};
+		}
+		case CHECK_BID_STATUS:
+		{
+			final String bidderName = trace.readName();
+			final int listingID = trace.readInt();
+			final int recorded = trace.readByte();
+			return new Call(operation, index, trace.startUs(), listingID) {
+				boolean replay()
+				{
+					int replayedID = translate(listingID);
+					long startNs = System.nanoTime();
+					int status = server.checkBidStatus(bidderName, replayedID);
+					latency(operation).recordSince(startNs);
+					return status == recorded;
+				}
+			};
+		}
+		case ITEM_PRICE:
+		{
+			final int listingID = trace.readInt();
+			final int recorded = trace.readInt();
+			return new Call(operation, index, trace.startUs(), listingID) {
+				boolean replay()
+				{
+					int replayedID = translate(listingID);
+					long startNs = System.nanoTime();
+					int price = server.itemPrice(replayedID);
+					latency(operation).recordSince(startNs);
+					return price == recorded;
+				}
+			};
+		}
+		case ITEM_UNBID:
+		{
+			final int listingID = trace.readInt();
+			final boolean recorded = trace.readByte() != 0;
+			return new Call(operation, index, trace.startUs(), listingID) {
+				boolean replay()
+				{
+					int replayedID = translate(listingID);
+					long startNs = System.nanoTime();
+					boolean unbid = server.itemUnbid(replayedID);
+					latency(operation).recordSince(startNs);
+					return unbid == recorded;
+				}
+			};
+		}
+		case PAY_FOR_ITEM:
+		{
+			final String bidderName = trace.readName();
+			final int listingID = trace.readInt();
+			final int amount = trace.readInt();
+			final int recorded = trace.readByte();
+			final String recordedName = recorded == Trace.PAID ? trace.readName() : null;
+			return new Call(operation, index, trace.startUs(), listingID) {
+				boolean replay()
+				{
+					int replayedID = translate(listingID);
+					String itemName;
+					long startNs = System.nanoTime();
+					try
+					{
+						itemName = server.payForItem(bidderName, replayedID, amount);
+					}
+					catch (InsufficientFundsException e)
+					{
+						latency(operation).recordSince(startNs);
+						return recorded == Trace.INSUFFICIENT_FUNDS;
+					}
+					latency(operation).recordSince(startNs);
+					return itemName == null ? recorded == Trace.PAID_NOTHING : itemName.equals(recordedName);
+				}
+			};
+		}
+		default:
+			throw new IOException("Cannot replay " + operation);
+		}
+	}
+
+	/**
+	 * Note the ID the replayed server gave the item recorded as <code>recorded</code>, and start the clients
+	 * waiting for it again.
+	 */
+	private void listed(int recorded, int listingID)
+	{
+		listingIDs.put(recorded, listingID);
+		List<Client> woken;
+		synchronized(waiting)
+		{
+			woken = waiting.remove(recorded);
+		}
+		if (woken != null)
+		{
+			for (Client client : woken)
+				client.start();
+		}
+	}
+
+	/**
+	 * @return The ID the replayed server gave the item recorded as <code>listingID</code>; IDs that never
+	 * belonged to an item, or whose listing comes later in the trace, are passed on unchanged
+	 */
+	private int translate(int listingID)
+	{
+		Integer replayed = listingIDs.get(listingID);
+		return replayed == null ? listingID : replayed;
+	}
+
+	/**
+	 * @return Latencies of one operation during the replay
+	 */
+	public LatencyHistogram latency(ServerMetrics.Operation operation)
+	{
+		return latencies[operation.ordinal()];
+	}
+
+	/**
+	 * @return Calls of <code>operation</code> whose result differed from the recorded one
+	 */
+	public long divergences(ServerMetrics.Operation operation)
+	{
+		return divergences.get(operation.ordinal());
+	}
+
+	/**
+	 * @return Calls made by the replay
+	 */
+	public long calls()
+	{
+		long calls = 0;
+		for (LatencyHistogram histogram : latencies)
+			calls += histogram.count();
+		return calls;
+	}
+
+	/**
+	 * @return Calls, divergences and latency percentiles of every operation as plain text, latencies in microseconds
+	 */
+	public String report()
+	{
+		StringBuilder text = new StringBuilder();
+		text.append(String.format(Locale.ROOT, "%d calls replayed in %.3f s%s%n%n", calls(), elapsedNs / 1e9,
+				originalTiming ? " at original timing" : ""));
+		text.append(String.format(Locale.ROOT, "%-18s %10s %10s %10s %10s %10s %10s%n",
+				"operation", "count", "diverged", "p50", "p99", "p99.9", "max"));
+		for (ServerMetrics.Operation operation : ServerMetrics.Operation.values())
+		{
+			LatencyHistogram histogram = latency(operation);
+			if (histogram.count() == 0)
+				continue;
+			text.append(String.format(Locale.ROOT, "%-18s %10d %10d %10.1f %10.1f %10.1f %10.1f%n",
+					operation.name(), histogram.count(), divergences(operation), histogram.percentileNs(50) / 1000.0,
+					histogram.percentileNs(99) / 1000.0, histogram.percentileNs(99.9) / 1000.0,
+					histogram.maxNs() / 1000.0));
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Usage: <code>TraceReplayer trace [timed [shards [threads]]]</code>.  Replays a trace at full speed, or at its
+	 * original timing if <code>timed</code> is <code>true</code>, against a fresh server, partitioned if
+	 * <code>shards</code> is more than 1, on twice as many worker threads as processors unless given.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		if (args.length < 1)
+		{
+			System.err.println("usage: TraceReplayer trace [timed [shards [threads]]]");
+			return;
+		}
+		boolean timed = args.length > 1 && Boolean.parseBoolean(args[1]);
+		int shards = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : 2 * Runtime.getRuntime().availableProcessors();
+
+		AuditLog.getInstance().setLevel(AuditLog.Level.WARN);
+		AuctionServer server = shards > 1 ? new PartitionedAuctionServer(shards) : AuctionServer.getInstance();
+		TraceReplayer replayer = new TraceReplayer(server, timed, threads);
+		InputStream input = new FileInputStream(args[0]);
+		try
+		{
+			replayer.replay(input);
+		}
+		finally
+		{
+			input.close();
+		}
+		System.out.print(replayer.report());
+	}
+}
@@ -0,0 +1,292 @@
+package cmsc433.p1.tests;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+
+import cmsc433.p1.AuctionServer;
+import cmsc433.p1.AuditLog;
+
+/**
+ * Throughput benchmarks of the server's hot paths, meant as a regression
+ * gate for changes to its locking.
+ *
+ * Each benchmark runs one operation (<code>submitBid</code>,
+ * <code>getItems</code> or <code>checkBidStatus</code>) as fast as possible
+ * from 1, 2, 4... threads against a server holding
+ * <code>serverCapacity</code> items that never close, a fresh one for every
+ * iteration. Under the HOT distribution every thread works on the same 2
+ * items, so they contend on them; under COLD each call picks any of the
+ * items at random. Like JMH, each
+ * benchmark runs warmup iterations that are thrown away and then measured
+ * iterations, and reports the mean number of operations per second with a
+ * 99.9% error margin over the iterations. Unlike JMH it does not fork a JVM
+ * per benchmark, so run it on its own.
+ * <p>
+ * Usage: <code>ServerBenchmark [-threads N] [-warmup N] [-iterations N]
+ * [-time ms] [-save file] [-baseline file [-tolerance fraction]]</code>.
+ * <code>-save</code> writes the scores to a file; <code>-baseline</code>
+ * compares them with a file saved earlier and exits with status 1 if any
+ * benchmark got slower by more than the tolerance (10% by default).
+ */
+public class ServerBenchmark
+{
+	enum Benchmark { SUBMIT_BID, GET_ITEMS, CHECK_BID_STATUS }
+
+	enum Distribution { HOT, COLD }
+
+	private static final int HOT_ITEMS = 2;
+	private static final int BIDDERS_PER_THREAD = 16; // so that maxBidCount rarely turns a bid down
+
+	private final int warmupIterations;
+	private final int iterations;
+	private final int iterationMs;
+
+	private volatile boolean running;
+
+	ServerBenchmark(int warmupIterations, int iterations, int iterationMs)
+	{
+		this.warmupIterations = warmupIterations;
+		this.iterations = iterations;
+		this.iterationMs = iterationMs;
+	}
+
+	/**
+	 * @return Operations per second of each measured iteration
+	 */
+	double[] run(Benchmark benchmark, Distribution distribution, int threads) throws Exception
+	{
+		double[] scores = new double[iterations];
+		for (int i = -warmupIterations; i < iterations; i++)
+		{
+			//A fresh server and workers each iteration, so bid amounts start low again instead of overflowing
+			AuctionServer server = new AuctionServer() { };
+			int[] listingIDs = new int[AuctionServer.serverCapacity];
+			for (int j = 0; j < listingIDs.length; j++)
+				listingIDs[j] = server.submitItem("seller" + j / AuctionServer.maxSellerItems, "item" + j, 1, 3600000);
+			Worker[] workers = new Worker[threads];
+			for (int t = 0; t < threads; t++)
+				workers[t] = new Worker(server, benchmark, distribution == Distribution.HOT ? HOT_ITEMS : listingIDs.length,
+						listingIDs, t, threads);
+
+			double score = iteration(workers);
+			if (i >= 0)
+				scores[i] = score;
+		}
+		return scores;
+	}
+
+	/**
+	 * Run every worker for <code>iterationMs</code> at once.
+	 * @return Operations per second of all workers together
+	 */
+	private double iteration(Worker[] workers) throws Exception
+	{
+		final CyclicBarrier start = new CyclicBarrier(workers.length + 1);
+		Thread[] threads = new Thread[workers.length];
+		for (int t = 0; t < workers.length; t++)
+		{
+			final Worker worker = workers[t];
+			threads[t] = new Thread(new Runnable() {
+				public void run()
+				{
+					try
+					{
+						start.await();
+					}
+					catch (Exception e)
+					{
+						return;
+					}
+					worker.operations = 0;
+					while (running)
+						worker.operate();
+				}
+			});
+			threads[t].start();
+		}
+
+		running = true;
+		start.await();
+		long startNs = System.nanoTime();
+		Thread.sleep(iterationMs);
+		running = false;
+		long operations = 0;
+		for (int t = 0; t < workers.length; t++)
+		{
+			threads[t].join();
+			operations += workers[t].operations;
+		}
+		return operations * 1e9 / (System.nanoTime() - startNs);
+	}
+
+	/**
+	 * One benchmark thread.  Its state is only touched by that thread while it runs.
+	 */
+	private static final class Worker
+	{
+		final AuctionServer server;
+		final Benchmark benchmark;
+		final int[] listingIDs;
+		final int items; // how many of listingIDs this worker uses
+		final String[] bidders = new String[BIDDERS_PER_THREAD];
+		final int thread;
+		final int threads;
+		long seed;
+		long amount = 0;
+		long operations;
+
+		Worker(AuctionServer server, Benchmark benchmark, int items, int[] listingIDs, int thread, int threads)
+		{
+			this.server = server;
+			this.benchmark = benchmark;
+			this.items = items;
+			this.listingIDs = listingIDs;
+			this.thread = thread;
+			this.threads = threads;
+			this.seed = 0x9E3779B97F4A7C15L * (thread + 1);
+			for (int i = 0; i < bidders.length; i++)
+				bidders[i] = "bidder" + thread + "-" + i;
+		}
+
+		void operate()
+		{
+			seed ^= seed << 13; //xorshift: cheaper than Random, and nothing shared between threads
+			seed ^= seed >>> 7;
+			seed ^= seed << 17;
+			int listingID = listingIDs[(int) ((seed >>> 1) % items)];
+			String bidder = bidders[(int) (operations % BIDDERS_PER_THREAD)];
+			switch (benchmark)
+			{
+			case SUBMIT_BID:
+				//Amounts rise and never collide between threads, so bids keep being accepted under contention
+				server.submitBid(bidder, listingID, (int) (++amount * threads + thread));
+				break;
+			case GET_ITEMS:
+				server.getItems();
+				break;
+			case CHECK_BID_STATUS:
+				server.checkBidStatus(bidder, listingID);
+				break;
+			}
+			operations++;
+		}
+	}
+
+	private static double mean(double[] scores)
+	{
+		double sum = 0;
+		for (double score : scores)
+			sum += score;
+		return sum / scores.length;
+	}
+
+	/**
+	 * @return Half the width of the 99.9% confidence interval of the mean, from a normal approximation
+	 */
+	private static double error(double[] scores)
+	{
+		if (scores.length < 2)
+			return 0;
+		double mean = mean(scores), squares = 0;
+		for (double score : scores)
+			squares += (score - mean) * (score - mean);
+		return 3.29 * Math.sqrt(squares / (scores.length - 1)) / Math.sqrt(scores.length);
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+		int warmup = 3, iterations = 5, iterationMs = 1000;
+		String save = null, baseline = null;
+		double tolerance = 0.10;
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			String value = args[i + 1];
+			if (args[i].equals("-threads")) maxThreads = Integer.parseInt(value);
+			else if (args[i].equals("-warmup")) warmup = Integer.parseInt(value);
+			else if (args[i].equals("-iterations")) iterations = Integer.parseInt(value);
+			else if (args[i].equals("-time")) iterationMs = Integer.parseInt(value);
+			else if (args[i].equals("-save")) save = value;
+			else if (args[i].equals("-baseline")) baseline = value;
+			else if (args[i].equals("-tolerance")) tolerance = Double.parseDouble(value);
+			else throw new IllegalArgumentException("Unknown option " + args[i]);
+		}
+
+		AuditLog.getInstance().setLevel(AuditLog.Level.OFF); //Logging every bid would be the benchmark
+		ServerBenchmark harness = new ServerBenchmark(warmup, iterations, iterationMs);
+		Map<String, Double> scores = new HashMap<String, Double>();
+		List<String> order = new ArrayList<String>();
+		System.out.printf(Locale.ROOT, "%-32s %14s %12s%n", "benchmark", "ops/s", "error");
+		for (Benchmark benchmark : Benchmark.values())
+		{
+			for (Distribution distribution : Distribution.values())
+			{
+				for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(threads * 2, maxThreads) : threads + 1)
+				{
+					double[] result = harness.run(benchmark, distribution, threads);
+					String name = benchmark + ":" + distribution + ":" + threads;
+					scores.put(name, mean(result));
+					order.add(name);
+					System.out.printf(Locale.ROOT, "%-32s %14.0f %12.0f%n", name, mean(result), error(result));
+				}
+			}
+		}
+
+		if (save != null)
+		{
+			PrintWriter out = new PrintWriter(new FileWriter(save));
+			try
+			{
+				for (String name : order)
+					out.printf(Locale.ROOT, "%s %.0f%n", name, scores.get(name));
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		if (baseline != null && !compare(baseline, scores, tolerance))
+			System.exit(1);
+	}
+
+	/**
+	 * Compare scores with those saved in <code>baseline</code>; benchmarks missing from either are skipped.
+	 * @return False if any benchmark is slower than its baseline by more than <code>tolerance</code>
+	 */
+	private static boolean compare(String baseline, Map<String, Double> scores, double tolerance) throws IOException
+	{
+		boolean passed = true;
+		BufferedReader in = new BufferedReader(new FileReader(baseline));
+		try
+		{
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				String[] fields = line.trim().split("\\s+");
+				if (fields.length != 2 || !scores.containsKey(fields[0]))
+					continue;
+				double before = Double.parseDouble(fields[1]), now = scores.get(fields[0]);
+				if (now < before * (1 - tolerance))
+				{
+					System.out.printf(Locale.ROOT, "REGRESSION %s: %.0f ops/s, baseline %.0f (%.1f%%)%n", fields[0],
+							now, before, 100 * (now - before) / before);
+					passed = false;
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return passed;
+	}
+}
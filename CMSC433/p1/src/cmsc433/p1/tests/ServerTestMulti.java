@@ -2,14 +2,27 @@ package cmsc433.p1.tests;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -48,6 +61,7 @@ public class ServerTestMulti
     @After
     public void tearDown() throws Exception
     {
+        AuditLog.getInstance().setLevel(AuditLog.Level.INFO); // tests that load the server turn logging down
     }
 
     private void testMultiThread(int testNumber, int nrSellers, int nrBuyers)
@@ -291,7 +305,668 @@ public class ServerTestMulti
         }
     }
 
+    @Test
+    public void testBuyerQuotaUnderContention() throws InterruptedException {
+        final AuctionServer auctionServer = AuctionServer.getInstance();
+        final int nrItems = 4 * AuctionServer.maxSellerItems;
+
+        for (int i = 0; i < nrItems; i++)
+            assertEquals(i, auctionServer.submitItem("seller" + (i % 4), "food" + i, 1, 5000));
+
+        //The same bidder bids on every item from many threads at once
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < nrItems; i++)
+                        auctionServer.submitBid("greedy", (i + offset) % nrItems, 1000);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        int leads = 0;
+        for (int i = 0; i < nrItems; i++) {
+            if (auctionServer.itemPrice(i) == 1000)
+                leads++;
+        }
+        assertEquals("The bidder should lead exactly maxBidCount items", AuctionServer.maxBidCount, leads);
+    }
+
+    @Test
+    public void testExpiryWithoutPolling() throws InterruptedException {
+        AuctionServer auctionServer = AuctionServer.getInstance();
+
+        //Fill the server to capacity with short auctions, one of them bid on
+        for (int i = 0; i < AuctionServer.serverCapacity; i++)
+            assertEquals(i, auctionServer.submitItem("seller" + (i % 4), "food" + i, 10, 100));
+        assertTrue(auctionServer.submitBid("bidder1", 0, 20));
+        assertEquals(-1, auctionServer.submitItem("seller9", "late", 10, 100));
+
+        //Nobody calls checkBidStatus: the items must still close and free their capacity on time
+        Thread.sleep(400);
+        assertEquals(0, auctionServer.getItems().size());
+        assertEquals(20, auctionServer.uncollectedRevenue());
+        assertEquals(AuctionServer.serverCapacity, auctionServer.submitItem("seller9", "late", 10, 100));
+        assertEquals(1, auctionServer.checkBidStatus("bidder1", 0));
+    }
+
+    @Test
+    public void testBatchedBids() {
+        AuctionServer auctionServer = AuctionServer.getInstance();
+        int nrItems = AuctionServer.maxBidCount + 5;
+        for (int i = 0; i < nrItems; i++)
+            assertEquals(i, auctionServer.submitItem("seller" + (i % 4), "food" + i, 10, 5000));
+        assertTrue(auctionServer.submitBid("bidder2", 1, 50));
+
+        List<BidRequest> requests = new ArrayList<BidRequest>();
+        requests.add(new BidRequest(0, 5));
+        requests.add(new BidRequest(1, 40));
+        for (int i = 0; i < nrItems; i++)
+            requests.add(new BidRequest(i, 100));
+        BidResult[] results = auctionServer.submitBids("bidder1", requests);
+
+        assertEquals(requests.size(), results.length);
+        assertEquals(BidResult.BELOW_MINIMUM, results[0]);
+        assertEquals(BidResult.BELOW_CURRENT, results[1]);
+        for (int i = 0; i < AuctionServer.maxBidCount; i++)
+            assertEquals(BidResult.ACCEPTED, results[2 + i]);
+        for (int i = AuctionServer.maxBidCount; i < nrItems; i++)
+            assertEquals(BidResult.TOO_MANY_BIDS, results[2 + i]);
+
+        //Being outbid frees a slot for the next batch
+        assertTrue(auctionServer.submitBid("bidder2", 0, 200));
+        results = auctionServer.submitBids("bidder1", requests.subList(2, 2 + nrItems));
+        assertEquals(BidResult.ACCEPTED, results[AuctionServer.maxBidCount]);
+        assertEquals(BidResult.TOO_MANY_BIDS, results[AuctionServer.maxBidCount + 1]);
+    }
+
+    @Test
+    public void testSubscriptionEvents() throws Exception {
+        AuctionServer auctionServer = AuctionServer.getInstance();
+        assertEquals(0, auctionServer.submitItem("seller1", "food0", 10, 200));
+        assertEquals(1, auctionServer.submitItem("seller1", "food1", 10, 200));
+
+        final BlockingQueue<AuctionEvent> bidder1Events = new LinkedBlockingQueue<AuctionEvent>();
+        final BlockingQueue<AuctionEvent> bidder2Events = new LinkedBlockingQueue<AuctionEvent>();
+        final BlockingQueue<AuctionEvent> watcherEvents = new LinkedBlockingQueue<AuctionEvent>();
+        assertTrue(auctionServer.subscribe("bidder1", 0, new AuctionListener() {
+            public void auctionEvent(AuctionEvent event) { bidder1Events.add(event); }
+        }));
+        assertTrue(auctionServer.subscribe("bidder2", 0, new AuctionListener() {
+            public void auctionEvent(AuctionEvent event) { bidder2Events.add(event); }
+        }));
+        assertTrue(auctionServer.subscribe("watcher", 1, new AuctionListener() {
+            public void auctionEvent(AuctionEvent event) { watcherEvents.add(event); }
+        }));
+        assertFalse(auctionServer.subscribe("watcher", 99, new AuctionListener() {
+            public void auctionEvent(AuctionEvent event) { }
+        }));
+
+        assertTrue(auctionServer.submitBid("bidder1", 0, 20));
+        assertTrue(auctionServer.submitBid("bidder2", 0, 30));
+
+        AuctionEvent event = bidder2Events.poll(1, TimeUnit.SECONDS);
+        assertEquals(AuctionEvent.Type.OUTBID, event.type());
+        assertEquals(20, event.price());
+        event = bidder1Events.poll(1, TimeUnit.SECONDS);
+        assertEquals(AuctionEvent.Type.OUTBID, event.type());
+        assertEquals(30, event.price());
+        assertEquals("bidder2", event.leader());
+
+        //The items close on their own; each subscriber gets its outcome without polling
+        assertEquals(AuctionEvent.Type.LOST, bidder1Events.poll(1, TimeUnit.SECONDS).type());
+        assertEquals(AuctionEvent.Type.WON, bidder2Events.poll(1, TimeUnit.SECONDS).type());
+        assertEquals(AuctionEvent.Type.CLOSED, watcherEvents.poll(1, TimeUnit.SECONDS).type());
+
+        //Subscribing after the close still reports the outcome, once
+        assertTrue(auctionServer.subscribe("bidder2", 0, new AuctionListener() {
+            public void auctionEvent(AuctionEvent event) { bidder2Events.add(event); }
+        }));
+        assertEquals(AuctionEvent.Type.WON, bidder2Events.poll(1, TimeUnit.SECONDS).type());
+        Thread.sleep(50);
+        assertTrue(bidder1Events.isEmpty());
+        assertTrue(bidder2Events.isEmpty());
+
+        //Blacklisting a bidder cancels the bids they lead, and the subscribers of those items are told
+        assertEquals(2, auctionServer.submitItem("seller2", "food2", 10, 60000));
+        assertTrue(auctionServer.submitBid("bidder2", 2, 40));
+        assertTrue(auctionServer.subscribe("watcher", 2, new AuctionListener() {
+            public void auctionEvent(AuctionEvent event) { watcherEvents.add(event); }
+        }));
+        try {
+            auctionServer.payForItem("bidder2", 0, 5);
+            fail("Underpaying should throw");
+        } catch (InsufficientFundsException e) {
+        }
+        event = watcherEvents.poll(1, TimeUnit.SECONDS);
+        assertEquals(AuctionEvent.Type.CANCELLED, event.type());
+        assertFalse(event.isFinal());
+        assertNull(event.leader());
+    }
+
+    @Test
+    public void testJournalRecovery() throws Exception {
+        File directory = Files.createTempDirectory("auction-journal").toFile();
+        AuctionServer auctionServer = AuctionServer.getInstance();
+        auctionServer.openJournal(directory, true);
+
+        assertEquals(0, auctionServer.submitItem("seller1", "food0", 10, 100));
+        assertEquals(1, auctionServer.submitItem("seller1", "food1", 10, 100));
+        assertEquals(2, auctionServer.submitItem("seller2", "food2", 10, 60000));
+        assertTrue(auctionServer.submitBid("bidder1", 0, 20));
+        assertTrue(auctionServer.submitBid("bidder2", 1, 30));
+        assertTrue(auctionServer.submitBid("bidder2", 2, 40));
+        auctionServer.checkpoint();
+        assertTrue(auctionServer.submitBid("bidder1", 2, 50));
+        Thread.sleep(200);
+        assertEquals("food0", auctionServer.payForItem("bidder1", 0, 25));
+        try {
+            auctionServer.payForItem("bidder2", 1, 5);
+            fail("Underpaying should throw");
+        } catch (InsufficientFundsException e) {
+        }
+        auctionServer.closeJournal();
+        assertEquals(0, auctionServer.metrics().journalFailures()); //Nothing was lost on the way to disk
+        assertEquals(0, auctionServer.metrics().journalLosses());
+
+        //A fresh server recovers the same state from the snapshot and the journal written after it
+        AuctionServer restarted = newServer();
+        restarted.openJournal(directory, true);
+        assertEquals(1, restarted.soldItemsCount());
+        assertEquals(25, restarted.revenue());
+        assertEquals(0, restarted.uncollectedRevenue());
+        assertEquals(1, restarted.getItems().size());
+        assertEquals(50, restarted.itemPrice(2));
+        assertEquals(2, restarted.checkBidStatus("bidder1", 2));
+        assertFalse(restarted.submitBid("bidder2", 2, 60)); //Still blacklisted
+        assertTrue(restarted.submitBid("bidder3", 2, 60));
+        assertEquals(3, restarted.submitItem("seller2", "food3", 10, 100));
+        restarted.closeJournal();
+    }
+
+    @Test
+    public void testCompactionKeepsSettledItemsReadable() throws Exception {
+        AuctionServer auctionServer = AuctionServer.getInstance();
+        for (int i = 0; i < 4; i++)
+            assertEquals(i, auctionServer.submitItem("seller1", "food" + i, 10, 100));
+        assertTrue(auctionServer.submitBid("bidder1", 0, 20));
+        assertTrue(auctionServer.submitBid("bidder2", 1, 30));
+        Thread.sleep(200);
+        assertEquals("food0", auctionServer.payForItem("bidder1", 0, 25));
+
+        //Item 0 is sold and items 2 and 3 closed unbid; item 1 still awaits payment
+        assertEquals(3, auctionServer.compact());
+        assertEquals(3, auctionServer.archivedItemsCount());
+        assertEquals(20, auctionServer.itemPrice(0));
+        assertEquals(10, auctionServer.itemPrice(2));
+        assertEquals(-1, auctionServer.itemPrice(4));
+        assertFalse(auctionServer.itemUnbid(0));
+        assertTrue(auctionServer.itemUnbid(3));
+        assertEquals(1, auctionServer.checkBidStatus("bidder1", 0));
+        assertEquals(3, auctionServer.checkBidStatus("bidder2", 0));
+        assertEquals(3, auctionServer.checkBidStatus("bidder1", 2));
+        assertNull(auctionServer.payForItem("bidder1", 0, 25));
+        assertFalse(auctionServer.submitBid("bidder3", 2, 50));
+
+        assertEquals("food1", auctionServer.payForItem("bidder2", 1, 30));
+        assertEquals(1, auctionServer.compact());
+        assertEquals(2, auctionServer.soldItemsCount());
+        assertEquals(55, auctionServer.revenue());
+        assertEquals(0, auctionServer.uncollectedRevenue());
+    }
+
+    @Test
+    public void testBlacklistCancelsRetakenLeads() throws InterruptedException {
+        AuctionServer auctionServer = AuctionServer.getInstance();
+        assertEquals(0, auctionServer.submitItem("seller1", "food0", 10, 100));
+        assertEquals(1, auctionServer.submitItem("seller1", "food1", 10, 5000));
+        assertEquals(2, auctionServer.submitItem("seller1", "food2", 10, 5000));
+
+        //bidder1 loses the lead on item 1 and takes it back; item 2 goes to bidder2
+        assertTrue(auctionServer.submitBid("bidder1", 1, 20));
+        assertTrue(auctionServer.submitBid("bidder2", 1, 30));
+        assertTrue(auctionServer.submitBid("bidder1", 1, 40));
+        assertTrue(auctionServer.submitBid("bidder1", 2, 20));
+        assertTrue(auctionServer.submitBid("bidder2", 2, 30));
+        assertTrue(auctionServer.submitBid("bidder1", 0, 20));
+        Thread.sleep(200);
+
+        try {
+            auctionServer.payForItem("bidder1", 0, 5);
+            fail("Underpaying should throw");
+        } catch (InsufficientFundsException e) {
+        }
+        assertTrue(auctionServer.itemUnbid(1));
+        assertEquals(10, auctionServer.itemPrice(1));
+        assertEquals(30, auctionServer.itemPrice(2));
+        assertEquals(0, auctionServer.uncollectedRevenue());
+    }
+
+    @Test
+    public void testPartitionedServer() throws InterruptedException {
+        AuctionServer auctionServer = new PartitionedAuctionServer(4);
+
+        //Listing IDs are unique across shards, and each seller's quota still holds
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 3; j++)
+                ids.add(auctionServer.submitItem("seller" + i, "food" + i + "-" + j, 10, j == 0 ? 100 : 5000));
+        }
+        for (int j = 3; j < AuctionServer.maxSellerItems; j++)
+            assertTrue(auctionServer.submitItem("seller0", "more" + j, 10, 5000) >= 0);
+        assertEquals(-1, auctionServer.submitItem("seller0", "one too many", 10, 5000));
+        assertEquals(ids.size(), new HashSet<Integer>(ids).size());
+        assertEquals(24 + AuctionServer.maxSellerItems - 3, auctionServer.getItems().size());
+
+        //The buyer quota spans all shards
+        int accepted = 0;
+        for (int id : ids) {
+            if (auctionServer.submitBid("bidder1", id, 20))
+                accepted++;
+        }
+        assertEquals(AuctionServer.maxBidCount, accepted);
+
+        //Underpaying on one shard cancels the bidder's leads on every shard
+        Thread.sleep(200);
+        int won = -1;
+        for (int i = 0; i < 8; i++) {
+            if (auctionServer.checkBidStatus("bidder1", ids.get(3 * i)) == 1) {
+                won = ids.get(3 * i);
+                break;
+            }
+        }
+        assertTrue(won >= 0);
+        try {
+            auctionServer.payForItem("bidder1", won, 1);
+            fail("Underpaying should throw");
+        } catch (InsufficientFundsException e) {
+        }
+        for (int id : ids)
+            assertTrue(auctionServer.itemUnbid(id));
+        assertFalse(auctionServer.submitBid("bidder1", ids.get(1), 50));
 
+        assertTrue(auctionServer.submitBid("bidder2", ids.get(1), 50));
+        assertEquals(50, auctionServer.itemPrice(ids.get(1)));
+        assertEquals(0, auctionServer.uncollectedRevenue());
+    }
 
+    @Test
+    public void testAuditLogJson() throws Exception {
+        AuctionServer auctionServer = newServer();
+        AuditLog auditLog = AuditLog.getInstance();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        auditLog.flush();
+        auditLog.setOutput(output);
+        auditLog.setFormat(AuditLog.Format.JSON);
+        try {
+            int id = auctionServer.submitItem("seller1", "food", 10, 5000);
+            assertTrue(auctionServer.submitBid("bidder1", id, 20));
+            assertFalse(auctionServer.submitBid("bidder1", id, 30));
+            auctionServer.checkBidStatus("bidder1", id); //DEBUG, below the default level
+            auditLog.flush();
+
+            String[] lines = output.toString("UTF-8").split("\n");
+            assertEquals(2, lines.length);
+            assertTrue(lines[0].contains("\"level\":\"INFO\",\"event\":\"ACCEPTED\",\"subject\":\"bidder1\",\"listing\":" + id + ",\"value\":20"));
+            assertTrue(lines[1].contains("\"event\":\"ALREADY_HIGHEST\""));
+        } finally {
+            auditLog.flush();
+            auditLog.setFormat(AuditLog.Format.TEXT);
+            auditLog.setOutput(System.out);
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        AuctionServer auctionServer = newServer();
+        ServerMetrics metrics = auctionServer.metrics();
+        for (int i = 0; i <= AuctionServer.maxSellerItems; i++)
+            auctionServer.submitItem("seller1", "food" + i, 10, i == 0 ? 100 : 5000);
+        assertEquals(1, metrics.itemRejections(ServerMetrics.ItemRejection.SELLER_LIMIT));
+
+        assertTrue(auctionServer.submitBid("bidder1", 0, 20));
+        assertFalse(auctionServer.submitBid("bidder2", 0, 15));
+        assertFalse(auctionServer.submitBid("bidder2", 1, 5));
+        assertFalse(auctionServer.submitBid("bidder2", 99, 50));
+        assertEquals(1, metrics.bidResults(BidResult.ACCEPTED));
+        assertEquals(1, metrics.bidResults(BidResult.BELOW_CURRENT));
+        assertEquals(1, metrics.bidResults(BidResult.BELOW_MINIMUM));
+        assertEquals(1, metrics.bidResults(BidResult.NOT_AVAILABLE));
+        assertEquals(4, metrics.latency(ServerMetrics.Operation.SUBMIT_BID).count());
+        assertEquals(AuctionServer.maxSellerItems + 1, metrics.latency(ServerMetrics.Operation.SUBMIT_ITEM).count());
+
+        //Closing on time records how late it was, and paying is timed once, not as a status check too
+        Thread.sleep(300);
+        assertEquals(1, metrics.expiryLag().count());
+        assertTrue(metrics.expiryLag().percentileNs(50) <= metrics.expiryLag().maxNs());
+        assertEquals("food0", auctionServer.payForItem("bidder1", 0, 20));
+        assertEquals(1, metrics.latency(ServerMetrics.Operation.PAY_FOR_ITEM).count());
+        assertEquals(0, metrics.latency(ServerMetrics.Operation.CHECK_BID_STATUS).count());
+        assertTrue(metrics.lockWait(ServerMetrics.Lock.CATALOG).count() > 0);
+        assertTrue(metrics.dump().contains("SUBMIT_BID "));
+
+        auctionServer.registerMetrics("testMetrics");
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("cmsc433.p1:type=AuctionServer,name=\"testMetrics\"");
+        try {
+            assertEquals(AuctionServer.maxSellerItems - 1, mbeans.getAttribute(name, "ActiveItems"));
+            assertEquals(1, mbeans.getAttribute(name, "SoldItems"));
+        } finally {
+            mbeans.unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void testListingTable() throws Exception {
+        final ListingTable<Integer> table = new ListingTable<Integer>();
+        final int threads = 8, perThread = 20000;
+
+        //Threads fill disjoint IDs, growing the table, while all of them CAS one shared counter slot
+        table.set(0, 0);
+        final CyclicBarrier start = new CyclicBarrier(threads);
+        Thread[] fillers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            fillers[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        int listingID = 1 + i * threads + thread;
+                        assertTrue(table.compareAndSet(listingID, null, listingID));
+                        Integer count;
+                        do {
+                            count = table.get(0);
+                        } while (!table.compareAndSet(0, count, count + 1));
+                    }
+                }
+            });
+            fillers[t].start();
+        }
+        for (Thread filler : fillers)
+            filler.join();
+        assertEquals(threads * perThread, (int) table.get(0));
+        for (int listingID = 1; listingID <= threads * perThread; listingID++)
+            assertEquals(listingID, (int) table.get(listingID));
+        assertEquals(threads * perThread + 1, table.limit());
+
+        //Emptied segments are dropped; the values left are unaffected
+        for (int listingID = 0; listingID < threads * perThread; listingID++)
+            assertNotNull(table.remove(listingID));
+        assertEquals(1, table.segmentCount());
+        Integer last = table.get(threads * perThread);
+        assertEquals(threads * perThread, (int) last);
+        assertTrue(table.compareAndSet(threads * perThread, last, null)); //Compares references, like any CAS
+        assertEquals(0, table.segmentCount());
+        assertNull(table.get(5));
+        assertFalse(table.compareAndSet(5, 5, 6));
+        table.set(5, 5); //A dropped segment comes back when its range is filled again
+        assertEquals(5, (int) table.get(5));
+
+        //Negative and huge IDs
+        assertNull(table.get(-1));
+        assertNull(table.remove(-1));
+        assertTrue(table.compareAndSet(-1, null, null));
+        try {
+            table.set(-1, 1);
+            fail("Negative IDs cannot be set");
+        } catch (IllegalArgumentException e) {
+        }
+        assertNull(table.get(Integer.MAX_VALUE));
+        table.set(Integer.MAX_VALUE, 7);
+        assertEquals(7, (int) table.get(Integer.MAX_VALUE));
+        assertEquals(7, (int) table.remove(Integer.MAX_VALUE));
+        assertEquals(1, table.segmentCount());
+
+        //A shard's table holds every 4th ID from 1, densely
+        ListingTable<Integer> shard = new ListingTable<Integer>(4, 1);
+        for (int listingID = 1; listingID < 4 * 1024; listingID += 4)
+            shard.set(listingID, listingID);
+        assertEquals(1, shard.segmentCount());
+        assertEquals(4093, (int) shard.get(4093));
+        assertNull(shard.get(4092));
+        assertNull(shard.get(0));
+        try {
+            shard.set(6, 6);
+            fail("Another shard's IDs cannot be set");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testListingBits() throws Exception {
+        final ListingBits bits = new ListingBits();
+        final int threads = 8, ids = 200000;
+
+        //Every ID is added by two threads at once; exactly one of them adds it
+        final int[] added = new int[threads];
+        Thread[] adders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            adders[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int listingID = thread / 2; listingID < ids; listingID += threads / 2)
+                        if (bits.add(listingID))
+                            added[thread]++;
+                }
+            });
+            adders[t].start();
+        }
+        int total = 0;
+        for (int t = 0; t < threads; t++) {
+            adders[t].join();
+            total += added[t];
+        }
+        assertEquals(ids, total);
+        for (int listingID = 0; listingID < ids; listingID++)
+            assertTrue(bits.contains(listingID));
+        assertFalse(bits.contains(ids));
+
+        assertFalse(bits.contains(-1));
+        try {
+            bits.add(-1);
+            fail("Negative IDs cannot be added");
+        } catch (IllegalArgumentException e) {
+        }
+        assertFalse(bits.contains(Integer.MAX_VALUE));
+        assertTrue(bits.add(Integer.MAX_VALUE));
+        assertTrue(bits.contains(Integer.MAX_VALUE));
+        assertFalse(bits.add(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testLoadGenerator() throws Exception {
+        AuctionServer auctionServer = newServer();
+        AuditLog.getInstance().setLevel(AuditLog.Level.WARN); //One line per bid would flood the log
+        //2000 clients with 4 threads: far more clients than threads
+        LoadGenerator generator = new LoadGenerator(auctionServer, 2000, 20000, 2, 5, 4, 433);
+        generator.run();
+        assertEquals(0, generator.failures());
+        assertEquals(2000 * 5, generator.startDelay().count());
+        assertEquals(400 * 5, generator.latency(ServerMetrics.Operation.SUBMIT_ITEM).count());
+        assertEquals(auctionServer.metrics().latency(ServerMetrics.Operation.SUBMIT_BID).count(),
+                generator.latency(ServerMetrics.Operation.SUBMIT_BID).count());
+        assertTrue(generator.throughput(ServerMetrics.Operation.GET_ITEMS) > 0);
+        assertEquals(0, auctionServer.uncollectedRevenue()); //Every bidder paid for what it won before leaving
+    }
+
+    @Test
+    public void testTraceReplay() throws Exception {
+        AuditLog.getInstance().setLevel(AuditLog.Level.WARN); //One line per bid would flood the log
+        //Items stay open far longer than the clients take to list and bid, so the calls that list, look and
+        //bid happen before any auction closes and a serialized recording replays them with the same results.
+        //Checking and paying depend on exactly when auctions close, so those may diverge.
+        AuctionServer recorded = newServer();
+        ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        RecordingAuctionServer recorder = new RecordingAuctionServer(recorded, trace, true);
+        LoadGenerator generator = new LoadGenerator(recorder, 500, 200000, 0, 4, 4, 433);
+        generator.setBiddingDurationMs(2000, 2000);
+        generator.run();
+        recorder.close();
+
+        TraceReplayer replayer = new TraceReplayer(newServer(), false);
+        replayer.replay(new ByteArrayInputStream(trace.toByteArray()));
+        assertTrue(replayer.calls() >= 500 * 4); //Every action makes at least one call
+        assertEquals(recorded.metrics().latency(ServerMetrics.Operation.SUBMIT_BID).count(),
+                replayer.latency(ServerMetrics.Operation.SUBMIT_BID).count());
+        assertEquals(0, replayer.divergences(ServerMetrics.Operation.SUBMIT_ITEM));
+        assertEquals(0, replayer.divergences(ServerMetrics.Operation.GET_ITEMS));
+        assertEquals(0, replayer.divergences(ServerMetrics.Operation.SUBMIT_BID));
+
+        //A concurrent recording is replayed client by client on several workers, each client waiting for the
+        //items it bids on to be listed; which of the racing calls wins may differ, but every call is made
+        recorded = newServer();
+        trace = new ByteArrayOutputStream();
+        recorder = new RecordingAuctionServer(recorded, trace);
+        generator = new LoadGenerator(recorder, 500, 200000, 0, 4, 4, 433);
+        generator.setBiddingDurationMs(2000, 2000);
+        generator.run();
+        recorder.close();
+
+        replayer = new TraceReplayer(newServer(), false);
+        replayer.replay(new ByteArrayInputStream(trace.toByteArray()));
+        assertEquals(recorded.metrics().latency(ServerMetrics.Operation.SUBMIT_BID).count(),
+                replayer.latency(ServerMetrics.Operation.SUBMIT_BID).count());
+    }
+
+    @Test(timeout = 60000)
+    public void testTraceReplayManyClients() throws Exception {
+        AuditLog.getInstance().setLevel(AuditLog.Level.WARN); //One line per bid would flood the log
+        //Far more clients than threads: each gets its turn on a worker, not a thread of its own
+        final int clients = 20000;
+        ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        RecordingAuctionServer recorder = new RecordingAuctionServer(newServer(), trace, true);
+        for (int i = 0; i < AuctionServer.serverCapacity; i++) {
+            recorder.setClient("seller" + i / AuctionServer.maxSellerItems);
+            recorder.submitItem("seller" + i / AuctionServer.maxSellerItems, "item" + i, 1, 600000);
+        }
+        for (int c = 0; c < clients; c++) {
+            recorder.setClient("client" + c);
+            List<Item> items = recorder.getItems();
+            int listingID = items.get(c % items.size()).listingID();
+            recorder.submitBid("bidder" + c % 1000, listingID, recorder.itemPrice(listingID) + 1);
+            recorder.checkBidStatus("bidder" + c % 1000, listingID);
+        }
+        recorder.setClient(null);
+        recorder.close();
+
+        TraceReplayer replayer = new TraceReplayer(newServer(), false, 4);
+        replayer.replay(new ByteArrayInputStream(trace.toByteArray()));
+        assertEquals(AuctionServer.serverCapacity + 4L * clients, replayer.calls());
+        for (ServerMetrics.Operation operation : ServerMetrics.Operation.values())
+            assertEquals(operation.name(), 0, replayer.divergences(operation));
+    }
+
+    @Test
+    public void testConcurrentBidsAreAtomic() throws Exception {
+        final AuctionServer auctionServer = newServer();
+        AuditLog.getInstance().setLevel(AuditLog.Level.WARN); //One line per bid would flood the log
+        //Every item is one round: all threads are released on it together and bid distinct, rising amounts
+        final int threads = 4, bids = 25, items = 2 * AuctionServer.maxSellerItems;
+        final int[] listingIDs = new int[items];
+        for (int i = 0; i < items; i++)
+            listingIDs[i] = auctionServer.submitItem("seller" + i % 2, "item" + i, 1, 3000);
+        final int[][] highestAccepted = new int[threads][items];
+        final CyclicBarrier round = new CyclicBarrier(threads);
+        Thread[] bidders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            bidders[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < items; i++) {
+                            round.await();
+                            for (int k = 0; k < bids; k++) {
+                                int amount = 2 + k * threads + thread;
+                                if (auctionServer.submitBid("bidder" + thread + "-" + i, listingIDs[i], amount))
+                                    highestAccepted[thread][i] = amount;
+                            }
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            bidders[t].start();
+        }
+        for (Thread bidder : bidders)
+            bidder.join();
+
+        //The price is the highest accepted bid, and only the bidder who made it wins and owes it
+        int[] winners = new int[items];
+        int owed = 0;
+        for (int i = 0; i < items; i++) {
+            for (int t = 1; t < threads; t++)
+                if (highestAccepted[t][i] > highestAccepted[winners[i]][i])
+                    winners[i] = t;
+            owed += highestAccepted[winners[i]][i];
+            assertEquals("item " + i, highestAccepted[winners[i]][i], auctionServer.itemPrice(listingIDs[i]));
+        }
+        while (auctionServer.checkBidStatus("bidder0-0", listingIDs[0]) == 2)
+            Thread.sleep(50);
+        for (int i = 0; i < items; i++)
+            for (int t = 0; t < threads; t++)
+                assertEquals("item " + i + ", thread " + t, t == winners[i] ? 1 : 3,
+                        auctionServer.checkBidStatus("bidder" + t + "-" + i, listingIDs[i]));
+        assertEquals(owed, auctionServer.uncollectedRevenue());
+    }
+
+    @Test
+    public void testBidQuotaUnderContention() throws Exception {
+        final AuctionServer auctionServer = newServer();
+        AuditLog.getInstance().setLevel(AuditLog.Level.WARN); //One line per bid would flood the log
+        //Bidders race to outbid each other on every item; none may ever lead, and so win, more than maxBidCount
+        final int threads = 8;
+        final int[] listingIDs = new int[AuctionServer.serverCapacity];
+        for (int i = 0; i < listingIDs.length; i++)
+            listingIDs[i] = auctionServer.submitItem("seller" + i / AuctionServer.maxSellerItems, "item" + i, 1, 3000);
+        final CyclicBarrier start = new CyclicBarrier(threads);
+        Thread[] bidders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            bidders[t] = new Thread(new Runnable() {
+                public void run() {
+                    Random random = new Random(433 + thread);
+                    try {
+                        start.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    for (int k = 0; k < 50 * listingIDs.length; k++)
+                        auctionServer.submitBid("bidder" + thread, listingIDs[random.nextInt(listingIDs.length)],
+                                2 + k * threads + thread);
+                }
+            });
+            bidders[t].start();
+        }
+        for (Thread bidder : bidders)
+            bidder.join();
+
+        while (auctionServer.checkBidStatus("bidder0", listingIDs[0]) == 2)
+            Thread.sleep(50);
+        int won = 0;
+        for (int t = 0; t < threads; t++) {
+            int wins = 0;
+            for (int listingID : listingIDs)
+                if (auctionServer.checkBidStatus("bidder" + t, listingID) == 1)
+                    wins++;
+            assertTrue("bidder" + t + " won " + wins + " items", wins <= AuctionServer.maxBidCount);
+            won += wins;
+        }
+        assertTrue("only " + won + " items won", won > AuctionServer.maxBidCount); //The quota spread the wins out
+    }
+
+    private AuctionServer newServer() throws Exception {
+        Constructor<ServerPrinter> serverConstructor = ServerPrinter.class.getDeclaredConstructor((Class<ServerPrinter>[])null);
+        serverConstructor.setAccessible(true);
+        return serverConstructor.newInstance((Object[])null);
+    }
 
 }